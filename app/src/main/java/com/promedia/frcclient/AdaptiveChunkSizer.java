@@ -0,0 +1,54 @@
+package com.promedia.frcclient;
+
+/**
+ * Picks the relay chunk size for one direction of a work connection.
+ *
+ * Throughput is sampled over short windows and multiplied by the control connection's RTT to
+ * estimate the bandwidth-delay product; the chunk size follows that estimate, rounded to a power
+ * of two and clamped to the profile's limits. Fixed-size profiles never change.
+ */
+final class AdaptiveChunkSizer {
+
+    private static final long SAMPLE_WINDOW_NS = 250_000_000L; // 250 ms
+
+    private final TransportProfile profile;
+    private final RttEstimator rtt;
+    private int chunkSize;
+    private long windowStart = System.nanoTime();
+    private long windowBytes = 0;
+
+    AdaptiveChunkSizer(TransportProfile profile, RttEstimator rtt) {
+        this.profile = profile;
+        this.rtt = rtt;
+        this.chunkSize = profile.initialChunkSize;
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Accounts for bytes just relayed and returns the chunk size to use for the next read.
+     */
+    int onRelayed(int bytes) {
+        if (!profile.isAdaptive()) {
+            return chunkSize;
+        }
+        windowBytes += bytes;
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < SAMPLE_WINDOW_NS) {
+            return chunkSize;
+        }
+        long bytesPerSecond = windowBytes * 1_000_000_000L / elapsed;
+        long bdp = bytesPerSecond * rtt.millis() / 1000;
+        int target = (int) Math.max(profile.minChunkSize, Math.min(bdp, profile.maxChunkSize));
+        chunkSize = Integer.highestOneBit(target);
+        if (chunkSize < profile.minChunkSize) {
+            chunkSize = profile.minChunkSize;
+        }
+        windowStart = now;
+        windowBytes = 0;
+        return chunkSize;
+    }
+}
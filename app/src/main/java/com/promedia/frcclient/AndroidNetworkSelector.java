@@ -0,0 +1,201 @@
+package com.promedia.frcclient;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * NetworkSelector backed by ConnectivityManager callbacks.
+ *
+ * Every capability change re-scores the network in a NetworkRanking, which decides when to hand
+ * over: e.g. Wi-Fi that loses validation behind a captive portal gives way to validated cellular.
+ */
+class AndroidNetworkSelector implements NetworkSelector {
+
+    private static final String TAG = "FRPClient_NetSelector";
+
+    private final ConnectivityManager connectivityManager;
+    private final Map<Network, AndroidHandle> available = new HashMap<>();
+    private final NetworkRanking<AndroidHandle> ranking = new NetworkRanking<>();
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private Callback callback;
+
+    AndroidNetworkSelector(ConnectivityManager connectivityManager) {
+        this.connectivityManager = connectivityManager;
+    }
+
+    @Override
+    public synchronized void start(Callback callback) {
+        if (networkCallback != null) {
+            return;
+        }
+        this.callback = callback;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                update(network, connectivityManager.getNetworkCapabilities(network));
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                update(network, capabilities);
+            }
+
+            @Override
+            public void onLost(Network network) {
+                remove(network);
+            }
+        };
+
+        NetworkRequest.Builder builder = new NetworkRequest.Builder();
+        builder.addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        connectivityManager.registerNetworkCallback(builder.build(), networkCallback);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (networkCallback != null) {
+            try {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Network callback was not registered: " + e.getMessage());
+            }
+            networkCallback = null;
+        }
+        available.clear();
+        ranking.clear();
+        callback = null;
+    }
+
+    @Override
+    public synchronized Handle current() {
+        return ranking.current();
+    }
+
+    private void update(Network network, NetworkCapabilities capabilities) {
+        Handle selected;
+        synchronized (this) {
+            if (networkCallback == null) {
+                return;
+            }
+            AndroidHandle handle = available.get(network);
+            if (handle == null) {
+                handle = new AndroidHandle(network);
+                available.put(network, handle);
+            }
+            handle.label = label(capabilities) + "#" + network;
+            selected = ranking.update(handle, score(capabilities));
+        }
+        notifySelected(selected);
+    }
+
+    private void remove(Network network) {
+        Handle lost = null;
+        Handle selected;
+        Callback target;
+        synchronized (this) {
+            AndroidHandle handle = available.remove(network);
+            if (handle != null && ranking.remove(handle)) {
+                lost = handle;
+            }
+            selected = ranking.select();
+            target = callback;
+        }
+        // Announce the replacement first so a standby session can take over before teardown
+        notifySelected(selected);
+        if (lost != null && target != null) {
+            target.onNetworkLost(lost);
+        }
+    }
+
+    private void notifySelected(Handle selected) {
+        Callback target;
+        synchronized (this) {
+            target = callback;
+        }
+        if (selected != null && target != null) {
+            target.onNetworkSelected(selected);
+        }
+    }
+
+    private static int score(NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            return 0;
+        }
+        int transport;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            transport = NetworkRanking.TRANSPORT_ETHERNET;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            transport = NetworkRanking.TRANSPORT_WIFI;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            transport = NetworkRanking.TRANSPORT_CELLULAR;
+        } else {
+            transport = NetworkRanking.TRANSPORT_OTHER;
+        }
+        // API 21-22 cannot tell validated networks apart; transport alone decides there
+        boolean validated = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+        return NetworkRanking.score(transport, validated);
+    }
+
+    private static String label(NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            return "unknown";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        }
+        return "other";
+    }
+
+    private static class AndroidHandle implements Handle {
+        private final Network network;
+        volatile String label = "unknown";
+
+        AndroidHandle(Network network) {
+            this.network = network;
+        }
+
+        @Override
+        public String id() {
+            return label;
+        }
+
+        @Override
+        public void bindSocket(Socket socket) throws IOException {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
+                network.bindSocket(socket);
+            }
+            // API 21 cannot bind a TCP socket to a network; it follows the default route
+        }
+
+        @Override
+        public void bindDatagramSocket(DatagramSocket socket) throws IOException {
+            network.bindSocket(socket);
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return network.getAllByName(host);
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.promedia.frcclient;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles relay buffers across work connections and sessions.
+ *
+ * Buffers come in power-of-two size classes from 4 KiB to 256 KiB. Each class keeps at most
+ * MAX_POOLED_BYTES_PER_CLASS of idle buffers; anything beyond that is left to the GC.
+ */
+final class BufferPool {
+
+    private static final int MIN_SHIFT = 12; // 4 KiB
+    private static final int MAX_SHIFT = 18; // 256 KiB
+    private static final int MAX_POOLED_BYTES_PER_CLASS = 1024 * 1024;
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays cannot be created directly
+    private final ArrayDeque<byte[]>[] free = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+
+    BufferPool() {
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns a buffer of at least the given size, rounded up to its size class.
+     */
+    byte[] acquire(int size) {
+        int index = classIndex(size);
+        if (index < 0) {
+            return new byte[size]; // Larger than any class; not pooled
+        }
+        ArrayDeque<byte[]> queue = free[index];
+        synchronized (queue) {
+            byte[] buffer = queue.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[1 << (index + MIN_SHIFT)];
+    }
+
+    void release(byte[] buffer) {
+        int index = classIndex(buffer.length);
+        if (index < 0 || buffer.length != 1 << (index + MIN_SHIFT)) {
+            return;
+        }
+        ArrayDeque<byte[]> queue = free[index];
+        synchronized (queue) {
+            if ((queue.size() + 1) * buffer.length <= MAX_POOLED_BYTES_PER_CLASS) {
+                queue.push(buffer);
+            }
+        }
+    }
+
+    private static int classIndex(int size) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+}
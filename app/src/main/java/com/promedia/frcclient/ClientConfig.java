@@ -0,0 +1,88 @@
+package com.promedia.frcclient;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of parsing one configuration: connection settings, the frozen proxy table,
+ * the visitors and the validation report. One snapshot can back any number of clients, e.g. the active and
+ * the standby session of a profile during handover.
+ */
+final class ClientConfig {
+
+    private final ConfigParser.Format format;
+    private final String serverAddr;
+    private final int serverPort;
+    private final String token;
+    private final String protocol;
+    private final KcpTransport.Options kcpOptions; // null unless protocol is kcp
+    private final ProxyTable proxies;
+    private final List<VisitorConfig> visitors;
+    private final ValidationReport report;
+
+    ClientConfig(ConfigParser.Format format, String serverAddr, int serverPort, String token, String protocol,
+                 KcpTransport.Options kcpOptions, ProxyTable proxies, List<VisitorConfig> visitors,
+                 ValidationReport report) {
+        this.format = format;
+        this.serverAddr = serverAddr;
+        this.serverPort = serverPort;
+        this.token = token;
+        this.protocol = protocol;
+        this.kcpOptions = kcpOptions;
+        this.proxies = proxies;
+        this.visitors = Collections.unmodifiableList(visitors);
+        this.report = report;
+        proxies.freeze();
+    }
+
+    /**
+     * Parses an frpc.ini or frpc.toml configuration; the format is detected from its content.
+     */
+    static ClientConfig parse(String content) {
+        return ConfigParser.parse(content);
+    }
+
+    /**
+     * Whether a client can be started from this snapshot: the server address and port are valid.
+     * Other errors only drop the affected proxies or settings.
+     */
+    boolean isUsable() {
+        return serverAddr != null && !serverAddr.isEmpty() && serverPort > 0;
+    }
+
+    ConfigParser.Format format() {
+        return format;
+    }
+
+    String serverAddr() {
+        return serverAddr;
+    }
+
+    int serverPort() {
+        return serverPort;
+    }
+
+    String token() {
+        return token;
+    }
+
+    String protocol() {
+        return protocol;
+    }
+
+    KcpTransport.Options kcpOptions() {
+        return kcpOptions;
+    }
+
+    ProxyTable proxies() {
+        return proxies;
+    }
+
+    List<VisitorConfig> visitors() {
+        return visitors;
+    }
+
+    ValidationReport report() {
+        return report;
+    }
+}
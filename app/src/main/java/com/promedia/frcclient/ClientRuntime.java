@@ -0,0 +1,105 @@
+package com.promedia.frcclient;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resources shared by every FRPClient in the process: the I/O threads that run control loops
+ * and relays, the timer thread for pings and reconnects, the KCP and visitor event loops, relay
+ * buffers, DNS answers, the relay memory budget and the persistent event log. Running several
+ * profiles therefore costs sessions, not thread pools.
+ */
+final class ClientRuntime {
+
+    private static final long DNS_TTL_MS = 60000; // Server addresses rarely change within a minute
+    private static final int TIMER_IDLE_SECONDS = 30;
+
+    private static ClientRuntime shared;
+
+    private final ExecutorService ioExecutor = Executors.newCachedThreadPool();
+    private final ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1);
+    private final BufferPool bufferPool = new BufferPool();
+    private final DnsCache dnsCache = new DnsCache(DNS_TTL_MS);
+    private final MemoryBudget relayBudget;
+    private final EventLog eventLog;
+    private KcpDriver kcpDriver; // Started on first KCP dial
+    private VisitorLoop visitorLoop; // Started when the first visitor listens
+
+    ClientRuntime(MemoryBudget relayBudget, EventLog eventLog) {
+        this.relayBudget = relayBudget;
+        this.eventLog = eventLog;
+        // Let the timer thread go away while no session is scheduling anything
+        timers.setKeepAliveTime(TIMER_IDLE_SECONDS, TimeUnit.SECONDS);
+        timers.allowCoreThreadTimeOut(true);
+        timers.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Runtime used by clients created without one, sized for this process's heap. It has no
+     * storage to write an event log to.
+     */
+    static synchronized ClientRuntime shared() {
+        if (shared == null) {
+            shared = new ClientRuntime(MemoryBudget.forHeap(Runtime.getRuntime().maxMemory()), EventLog.DISABLED);
+        }
+        return shared;
+    }
+
+    ExecutorService ioExecutor() {
+        return ioExecutor;
+    }
+
+    ScheduledExecutorService timers() {
+        return timers;
+    }
+
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    DnsCache dnsCache() {
+        return dnsCache;
+    }
+
+    MemoryBudget relayBudget() {
+        return relayBudget;
+    }
+
+    EventLog eventLog() {
+        return eventLog;
+    }
+
+    synchronized KcpDriver kcpDriver() throws IOException {
+        if (kcpDriver == null) {
+            kcpDriver = new KcpDriver();
+        }
+        return kcpDriver;
+    }
+
+    synchronized VisitorLoop visitorLoop() throws IOException {
+        if (visitorLoop == null) {
+            visitorLoop = new VisitorLoop(bufferPool, relayBudget, eventLog);
+        }
+        return visitorLoop;
+    }
+
+    /**
+     * Stops every shared thread. Clients still using this runtime fail their next operation.
+     */
+    synchronized void shutdown() {
+        ioExecutor.shutdownNow();
+        timers.shutdownNow();
+        if (kcpDriver != null) {
+            kcpDriver.shutdown();
+            kcpDriver = null;
+        }
+        if (visitorLoop != null) {
+            visitorLoop.shutdown();
+            visitorLoop = null;
+        }
+    }
+}
@@ -0,0 +1,801 @@
+package com.promedia.frcclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-pass parser for frpc.ini and frpc.toml configurations.
+ *
+ * Lines are scanned by hand as they are read, without regexes or splitting the whole input.
+ * Only the section being read is buffered, in one reused map; each proxy section goes into the
+ * ProxyTable as soon as it ends, so memory does not grow with the number of sections and
+ * thousands of proxies parse in a few milliseconds. Every problem goes into the
+ * ValidationReport instead of stopping the parse.
+ *
+ * TOML support covers what frpc.toml files use: top-level keys, [tables], [[proxies]] with
+ * [proxies.plugin], [[visitors]], dotted keys, strings, integers and booleans. TOML keys are
+ * mapped onto the INI names, so both formats share one set of section rules. Port ranges, which frpc.toml
+ * writes as Go templates, are given as strings instead: {@code localPort = "6000-6006"}.
+ */
+final class ConfigParser {
+
+    enum Format { AUTO, INI, TOML }
+
+    static final String DEFAULT_LOCAL_IP = "127.0.0.1"; // frpc's default for local_ip
+    private static final String RANGE_PREFIX = "range:";
+
+    private static final int SCOPE_NONE = 0;    // Before the first section, or after an ignored one
+    private static final int SCOPE_COMMON = 1;
+    private static final int SCOPE_PROXY = 2;   // Proxy or visitor section
+    private static final int SCOPE_IGNORED = 3; // Unsupported table; its keys are skipped
+
+    private static final Set<String> COMMON_KEYS = new HashSet<>(Arrays.asList(
+            "server_addr", "server_port", "token", "protocol", "kcp_nodelay", "kcp_interval", "kcp_resend",
+            "kcp_nc", "kcp_snd_wnd", "kcp_rcv_wnd", "kcp_mtu"));
+    private static final Set<String> PROXY_KEYS = new HashSet<>(Arrays.asList(
+            "type", "local_ip", "local_port", "remote_port", "transport_profile", "plugin", "plugin_user",
+            "plugin_passwd", "plugin_http_user", "plugin_http_passwd", "plugin_local_path", "plugin_strip_prefix"));
+    private static final Set<String> VISITOR_KEYS = new HashSet<>(Arrays.asList(
+            "type", "role", "server_name", "sk", "bind_addr", "bind_port"));
+
+    // frpc.toml key (with its table prefix) -> INI key
+    private static final Map<String, String> TOML_COMMON_KEYS = new HashMap<>();
+    private static final Map<String, String> TOML_PROXY_KEYS = new HashMap<>();
+    private static final Map<String, String> TOML_VISITOR_KEYS = new HashMap<>();
+
+    static {
+        TOML_COMMON_KEYS.put("serverAddr", "server_addr");
+        TOML_COMMON_KEYS.put("serverPort", "server_port");
+        TOML_COMMON_KEYS.put("auth.token", "token");
+        TOML_COMMON_KEYS.put("transport.protocol", "protocol");
+        TOML_COMMON_KEYS.put("transport.kcp.nodelay", "kcp_nodelay");
+        TOML_COMMON_KEYS.put("transport.kcp.interval", "kcp_interval");
+        TOML_COMMON_KEYS.put("transport.kcp.resend", "kcp_resend");
+        TOML_COMMON_KEYS.put("transport.kcp.nc", "kcp_nc");
+        TOML_COMMON_KEYS.put("transport.kcp.sndWnd", "kcp_snd_wnd");
+        TOML_COMMON_KEYS.put("transport.kcp.rcvWnd", "kcp_rcv_wnd");
+        TOML_COMMON_KEYS.put("transport.kcp.mtu", "kcp_mtu");
+
+        TOML_PROXY_KEYS.put("name", "name");
+        TOML_PROXY_KEYS.put("type", "type");
+        TOML_PROXY_KEYS.put("localIP", "local_ip");
+        TOML_PROXY_KEYS.put("localPort", "local_port");
+        TOML_PROXY_KEYS.put("remotePort", "remote_port");
+        TOML_PROXY_KEYS.put("transportProfile", "transport_profile");
+        TOML_PROXY_KEYS.put("plugin.type", "plugin");
+        TOML_PROXY_KEYS.put("plugin.username", "plugin_user");
+        TOML_PROXY_KEYS.put("plugin.password", "plugin_passwd");
+        TOML_PROXY_KEYS.put("plugin.httpUser", "plugin_http_user");
+        TOML_PROXY_KEYS.put("plugin.httpPassword", "plugin_http_passwd");
+        TOML_PROXY_KEYS.put("plugin.localPath", "plugin_local_path");
+        TOML_PROXY_KEYS.put("plugin.stripPrefix", "plugin_strip_prefix");
+
+        TOML_VISITOR_KEYS.put("name", "name");
+        TOML_VISITOR_KEYS.put("type", "type");
+        TOML_VISITOR_KEYS.put("serverName", "server_name");
+        TOML_VISITOR_KEYS.put("secretKey", "sk");
+        TOML_VISITOR_KEYS.put("bindAddr", "bind_addr");
+        TOML_VISITOR_KEYS.put("bindPort", "bind_port");
+    }
+
+    private final ValidationReport report = new ValidationReport();
+    private final ProxyTable proxies = new ProxyTable();
+    private final List<VisitorConfig> visitors = new ArrayList<>();
+    private final Map<String, String> common = new HashMap<>();
+    private final Map<String, Integer> commonLines = new HashMap<>();
+    private final Map<String, String> section = new HashMap<>();      // Current proxy section, reused
+    private final Map<String, Integer> sectionLines = new HashMap<>();
+    private Format format;
+    private int lineNumber = 0;
+    private int scope = SCOPE_NONE;
+    private String sectionName;      // INI section name; TOML takes it from the name key
+    private boolean visitorSection;  // The proxy scope holds a visitor: role = visitor or [[visitors]]
+    private int sectionLine;
+    private String tablePrefix = ""; // TOML: prefix of the current table, e.g. "auth." or "plugin."
+    private boolean commonSeen = false;
+
+    private ConfigParser(Format format) {
+        this.format = format;
+    }
+
+    static ClientConfig parse(String content) {
+        try {
+            return parse(new StringReader(content), Format.AUTO);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringReader does not throw
+        }
+    }
+
+    static ClientConfig parse(Reader reader, Format format) throws IOException {
+        ConfigParser parser = new ConfigParser(format);
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            parser.lineNumber++;
+            parser.parseLine(line);
+        }
+        return parser.finish();
+    }
+
+    /**
+     * Parses port lists such as "6000-6006,6010" into individual ports, preserving order.
+     */
+    static int[] parsePortRange(String value) {
+        if (value == null) {
+            throw new NumberFormatException("port range is missing");
+        }
+        String[] parts = value.split(",");
+        int count = 0;
+        int[][] bounds = new int[parts.length][2];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int dash = part.indexOf('-');
+            int start = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+            int end = dash < 0 ? start : Integer.parseInt(part.substring(dash + 1).trim());
+            if (start < 1 || end > 65535 || end < start) {
+                throw new NumberFormatException("Invalid port range: " + part);
+            }
+            bounds[i][0] = start;
+            bounds[i][1] = end;
+            count += end - start + 1;
+        }
+        int[] ports = new int[count];
+        int next = 0;
+        for (int[] bound : bounds) {
+            for (int port = bound[0]; port <= bound[1]; port++) {
+                ports[next++] = port;
+            }
+        }
+        return ports;
+    }
+
+    private void parseLine(String line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        char first = line.charAt(start);
+        if (first == '#' || (first == ';' && format != Format.TOML)) {
+            return;
+        }
+        if (format == Format.AUTO) {
+            format = detect(line, start, end);
+            if (format == Format.TOML) {
+                scope = SCOPE_COMMON; // TOML starts with top-level keys
+            }
+        }
+        if (format == Format.INI) {
+            if (first == '[') {
+                iniHeader(line, start, end);
+            } else {
+                iniKeyValue(line, start, end);
+            }
+        } else {
+            if (first == '[') {
+                tomlHeader(line, start, end);
+            } else {
+                tomlKeyValue(line, start, end);
+            }
+        }
+    }
+
+    /**
+     * Decides the format from the first line that is not blank or a comment: frpc.ini starts
+     * with [common] or a proxy section, frpc.toml with top-level keys, a known table or
+     * [[proxies]]. A key before any section is INI if it uses an INI name or an unquoted text
+     * value, as in {@code server_addr = example.com}.
+     */
+    private static Format detect(String line, int start, int end) {
+        if (line.startsWith("[[", start)) {
+            return Format.TOML;
+        }
+        if (line.charAt(start) != '[') {
+            return detectKey(line, start, end);
+        }
+        int close = line.indexOf(']', start);
+        String name = close < 0 ? "" : line.substring(start + 1, close).trim();
+        if (name.equals("auth") || name.equals("transport") || name.equals("log") || name.equals("webServer")
+                || name.startsWith("transport.") || name.startsWith("proxies.")) {
+            return Format.TOML;
+        }
+        return Format.INI;
+    }
+
+    private static Format detectKey(String line, int start, int end) {
+        int equals = line.indexOf('=', start);
+        if (equals < 0 || equals >= end) {
+            return Format.TOML; // Reported as a bad key either way
+        }
+        String key = line.substring(start, equals).trim();
+        if (TOML_COMMON_KEYS.containsKey(key) || key.indexOf('.') >= 0) {
+            return Format.TOML;
+        }
+        if (COMMON_KEYS.contains(key) || PROXY_KEYS.contains(key) || VISITOR_KEYS.contains(key)) {
+            return Format.INI;
+        }
+        int valueStart = skipSpaces(line, equals + 1, end);
+        if (valueStart >= end) {
+            return Format.INI; // TOML has no empty values
+        }
+        char first = line.charAt(valueStart);
+        if (first == '"' || first == '\'' || first == '[' || first == '{') {
+            return Format.TOML;
+        }
+        int valueEnd = valueStart;
+        while (valueEnd < end && line.charAt(valueEnd) != '#' && !Character.isWhitespace(line.charAt(valueEnd))) {
+            valueEnd++;
+        }
+        String token = line.substring(valueStart, valueEnd);
+        return "true".equals(token) || "false".equals(token) || isTomlInteger(token) ? Format.TOML : Format.INI;
+    }
+
+    // ---- INI ----
+
+    private void iniHeader(String line, int start, int end) {
+        finishSection();
+        if (line.charAt(end - 1) != ']') {
+            report.error(lineNumber, null, "Malformed section header: " + line.substring(start, end));
+            scope = SCOPE_IGNORED;
+            return;
+        }
+        String name = line.substring(start + 1, end - 1).trim();
+        String bare = name.startsWith(RANGE_PREFIX) ? name.substring(RANGE_PREFIX.length()) : name;
+        if (!isName(bare, 0, bare.length())) {
+            report.error(lineNumber, null, "Invalid section name: " + name);
+            scope = SCOPE_IGNORED;
+            return;
+        }
+        if ("common".equals(name)) {
+            if (commonSeen) {
+                report.warning(lineNumber, name, "Duplicate section; its keys are merged into the first one.");
+            }
+            commonSeen = true;
+            scope = SCOPE_COMMON;
+        } else {
+            scope = SCOPE_PROXY;
+            sectionName = name;
+            sectionLine = lineNumber;
+            visitorSection = false; // Decided by the role key once the section ends
+        }
+    }
+
+    private void iniKeyValue(String line, int start, int end) {
+        int equals = line.indexOf('=', start);
+        if (equals < 0 || equals >= end) {
+            report.warning(lineNumber, currentSectionLabel(), "Ignored line without '=': " + line.substring(start, end));
+            return;
+        }
+        int keyEnd = equals;
+        while (keyEnd > start && Character.isWhitespace(line.charAt(keyEnd - 1))) {
+            keyEnd--;
+        }
+        if (!isName(line, start, keyEnd)) {
+            report.warning(lineNumber, currentSectionLabel(), "Ignored invalid key: " + line.substring(start, keyEnd));
+            return;
+        }
+        int valueStart = equals + 1;
+        while (valueStart < end && Character.isWhitespace(line.charAt(valueStart))) {
+            valueStart++;
+        }
+        put(line.substring(start, keyEnd), line.substring(valueStart, end));
+    }
+
+    // ---- TOML ----
+
+    private void tomlHeader(String line, int start, int end) {
+        boolean array = line.startsWith("[[", start);
+        int open = array ? 2 : 1;
+        if (end - start < 2 * open + 1 || line.charAt(end - 1) != ']' || (array && line.charAt(end - 2) != ']')) {
+            report.error(lineNumber, null, "Malformed table header: " + line.substring(start, end));
+            finishSection();
+            scope = SCOPE_IGNORED;
+            return;
+        }
+        String name = line.substring(start + open, end - open).trim();
+        if (array) {
+            finishSection();
+            tablePrefix = "";
+            if ("proxies".equals(name) || "visitors".equals(name)) {
+                scope = SCOPE_PROXY;
+                sectionName = null;
+                sectionLine = lineNumber;
+                visitorSection = "visitors".equals(name);
+            } else {
+                report.warning(lineNumber, null, "Unsupported table [[" + name + "]] ignored.");
+                scope = SCOPE_IGNORED;
+            }
+        } else if (name.startsWith("proxies.")) {
+            // Sub-table of the last [[proxies]] entry, e.g. [proxies.plugin]
+            if (scope != SCOPE_PROXY || visitorSection) {
+                report.error(lineNumber, null, "[" + name + "] must follow a [[proxies]] entry.");
+                finishSection(); // Keeps a preceding [[visitors]] entry
+                scope = SCOPE_IGNORED;
+                return;
+            }
+            tablePrefix = name.substring("proxies.".length()) + ".";
+        } else {
+            finishSection();
+            scope = SCOPE_COMMON;
+            tablePrefix = name + ".";
+        }
+    }
+
+    private void tomlKeyValue(String line, int start, int end) {
+        // Bare, possibly dotted key; spaces are allowed around the dots
+        StringBuilder key = new StringBuilder();
+        int pos = start;
+        while (true) {
+            int partStart = pos;
+            while (pos < end && isNameChar(line.charAt(pos))) {
+                pos++;
+            }
+            if (pos == partStart) {
+                report.error(lineNumber, currentSectionLabel(), "Unsupported or invalid key: " + line.substring(start, end));
+                return;
+            }
+            key.append(line, partStart, pos);
+            pos = skipSpaces(line, pos, end);
+            if (pos < end && line.charAt(pos) == '.') {
+                key.append('.');
+                pos = skipSpaces(line, pos + 1, end);
+                continue;
+            }
+            break;
+        }
+        if (pos >= end || line.charAt(pos) != '=') {
+            report.error(lineNumber, currentSectionLabel(), "Expected '=' after key " + key);
+            return;
+        }
+        String value = tomlValue(line, skipSpaces(line, pos + 1, end), end);
+        if (value == null) {
+            return; // Already reported
+        }
+
+        String fullKey = tablePrefix + key;
+        if (scope == SCOPE_IGNORED) {
+            return;
+        }
+        Map<String, String> keys = scope != SCOPE_PROXY ? TOML_COMMON_KEYS
+                : visitorSection ? TOML_VISITOR_KEYS : TOML_PROXY_KEYS;
+        String mapped = keys.get(fullKey);
+        if (mapped == null) {
+            report.warning(lineNumber, currentSectionLabel(), "Unknown key ignored: " + fullKey);
+            return;
+        }
+        put(mapped, value);
+    }
+
+    /**
+     * Parses a string, integer or boolean value followed by an optional comment. Returns the
+     * value as text, or null after reporting an error.
+     */
+    private String tomlValue(String line, int pos, int end) {
+        if (pos >= end) {
+            report.error(lineNumber, currentSectionLabel(), "Missing value.");
+            return null;
+        }
+        char first = line.charAt(pos);
+        String value;
+        int after;
+        if (first == '"' || first == '\'') {
+            if (line.startsWith(first == '"' ? "\"\"\"" : "'''", pos)) {
+                report.error(lineNumber, currentSectionLabel(), "Multi-line strings are not supported.");
+                return null;
+            }
+            StringBuilder text = new StringBuilder();
+            int i = pos + 1;
+            boolean closed = false;
+            while (i < end) {
+                char c = line.charAt(i++);
+                if (c == first) {
+                    closed = true;
+                    break;
+                }
+                if (c == '\\' && first == '"') {
+                    if (i >= end) {
+                        break;
+                    }
+                    char escaped = line.charAt(i++);
+                    switch (escaped) {
+                        case 'n': text.append('\n'); break;
+                        case 't': text.append('\t'); break;
+                        case 'r': text.append('\r'); break;
+                        case '"': text.append('"'); break;
+                        case '\\': text.append('\\'); break;
+                        case 'u':
+                            if (i + 4 > end) {
+                                report.error(lineNumber, currentSectionLabel(), "Truncated \\u escape.");
+                                return null;
+                            }
+                            try {
+                                text.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                            } catch (NumberFormatException e) {
+                                report.error(lineNumber, currentSectionLabel(), "Invalid \\u escape.");
+                                return null;
+                            }
+                            i += 4;
+                            break;
+                        default:
+                            report.error(lineNumber, currentSectionLabel(), "Invalid escape \\" + escaped);
+                            return null;
+                    }
+                } else {
+                    text.append(c);
+                }
+            }
+            if (!closed) {
+                report.error(lineNumber, currentSectionLabel(), "Unterminated string.");
+                return null;
+            }
+            value = text.toString();
+            after = i;
+        } else if (first == '[' || first == '{') {
+            report.error(lineNumber, currentSectionLabel(), "Arrays and inline tables are not supported.");
+            return null;
+        } else {
+            int i = pos;
+            while (i < end && line.charAt(i) != '#' && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            String token = line.substring(pos, i);
+            if ("true".equals(token)) {
+                value = "1";
+            } else if ("false".equals(token)) {
+                value = "0";
+            } else if (isTomlInteger(token)) {
+                value = token.replace("_", "");
+            } else {
+                report.error(lineNumber, currentSectionLabel(), "Unsupported value: " + token);
+                return null;
+            }
+            after = i;
+        }
+        after = skipSpaces(line, after, end);
+        if (after < end && line.charAt(after) != '#') {
+            report.error(lineNumber, currentSectionLabel(), "Unexpected text after value: " + line.substring(after, end));
+            return null;
+        }
+        return value;
+    }
+
+    private static boolean isTomlInteger(String token) {
+        int i = token.startsWith("+") || token.startsWith("-") ? 1 : 0;
+        if (i >= token.length()) {
+            return false;
+        }
+        for (; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if ((c < '0' || c > '9') && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---- Sections ----
+
+    private void put(String key, String value) {
+        Map<String, String> target;
+        Map<String, Integer> lines;
+        if (scope == SCOPE_COMMON) {
+            target = common;
+            lines = commonLines;
+        } else if (scope == SCOPE_PROXY) {
+            target = section;
+            lines = sectionLines;
+        } else {
+            if (scope == SCOPE_NONE) {
+                report.warning(lineNumber, null, "Key outside of any section ignored: " + key);
+            }
+            return;
+        }
+        if (target.put(key, value) != null) {
+            report.warning(lineNumber, currentSectionLabel(), "Duplicate key " + key + "; the last value is used.");
+        }
+        lines.put(key, lineNumber);
+    }
+
+    private void finishSection() {
+        if (scope == SCOPE_PROXY) {
+            commitProxy();
+            section.clear();
+            sectionLines.clear();
+        }
+        scope = SCOPE_NONE;
+    }
+
+    private void commitProxy() {
+        String name = format == Format.TOML ? section.get("name") : sectionName;
+        if (format == Format.INI && "visitor".equals(section.get("role"))) {
+            visitorSection = true;
+        }
+        if (name == null || name.isEmpty()) {
+            report.error(sectionLine, null, (visitorSection ? "Visitor" : "Proxy") + " without a name skipped.");
+            return;
+        }
+        if (visitorSection) {
+            commitVisitor(name);
+            return;
+        }
+        boolean range = false;
+        if (format == Format.INI && name.startsWith(RANGE_PREFIX)) {
+            range = true;
+            name = name.substring(RANGE_PREFIX.length());
+        } else if (format == Format.TOML) {
+            range = isPortList(section.get("local_port")) || isPortList(section.get("remote_port"));
+        }
+
+        String type = section.get("type");
+        if (type == null) {
+            report.error(sectionLine, name, "type is missing; proxy skipped.");
+            return;
+        }
+        if (!"tcp".equals(type)) {
+            report.warning(lineOf("type"), name, "Proxy type " + type + " is not supported; proxy skipped.");
+            return;
+        }
+        if (format == Format.INI) {
+            for (String key : section.keySet()) {
+                if (!PROXY_KEYS.contains(key)) {
+                    report.warning(lineOf(key), name, "Unknown key ignored: " + key);
+                }
+            }
+        }
+
+        TransportProfile profile = TransportProfile.fromConfig(section.get("transport_profile"));
+        if (profile == null) {
+            report.warning(lineOf("transport_profile"), name, "Unknown transport_profile "
+                    + section.get("transport_profile") + "; using interactive.");
+            profile = TransportProfile.INTERACTIVE;
+        }
+        String localIp = section.get("local_ip");
+        if (localIp == null || localIp.isEmpty()) {
+            localIp = DEFAULT_LOCAL_IP;
+        }
+
+        String pluginName = section.get("plugin");
+        if (pluginName != null && !pluginName.isEmpty()) {
+            // Served inside the client; local_ip/local_port are not used
+            int remotePort = port(name, "remote_port");
+            if (remotePort < 0) {
+                return;
+            }
+            ProxyPlugin plugin;
+            try {
+                plugin = ProxyPlugin.fromConfig(pluginName, section);
+            } catch (IllegalArgumentException e) {
+                report.error(lineOf("plugin"), name, e.getMessage() + " Proxy skipped.");
+                return;
+            }
+            addProxy(name, "", 0, remotePort, profile, plugin);
+        } else if (range) {
+            int[] localPorts;
+            int[] remotePorts;
+            try {
+                localPorts = parsePortRange(section.get("local_port"));
+                remotePorts = parsePortRange(section.get("remote_port"));
+            } catch (NumberFormatException e) {
+                report.error(sectionLine, name, "Invalid port range: " + e.getMessage() + "; proxies skipped.");
+                return;
+            }
+            if (localPorts.length != remotePorts.length) {
+                report.error(sectionLine, name, "Port range size mismatch: " + localPorts.length + " local vs "
+                        + remotePorts.length + " remote ports; proxies skipped.");
+                return;
+            }
+            // Expanded proxies are named <name>_<index>, as frpc does
+            for (int i = 0; i < localPorts.length; i++) {
+                addProxy(name + "_" + i, localIp, localPorts[i], remotePorts[i], profile, null);
+            }
+        } else {
+            int localPort = port(name, "local_port");
+            int remotePort = port(name, "remote_port");
+            if (localPort < 0 || remotePort < 0) {
+                return;
+            }
+            addProxy(name, localIp, localPort, remotePort, profile, null);
+        }
+    }
+
+    private void commitVisitor(String name) {
+        String type = section.get("type");
+        if (type == null) {
+            report.error(sectionLine, name, "type is missing; visitor skipped.");
+            return;
+        }
+        if (!VisitorConfig.TYPE_STCP.equals(type)) {
+            report.warning(lineOf("type"), name, "Visitor type " + type + " is not supported; visitor skipped.");
+            return;
+        }
+        if (format == Format.INI) {
+            for (String key : section.keySet()) {
+                if (!VISITOR_KEYS.contains(key)) {
+                    report.warning(lineOf(key), name, "Unknown key ignored: " + key);
+                }
+            }
+        }
+        String serverName = section.get("server_name");
+        if (serverName == null || serverName.isEmpty()) {
+            report.error(sectionLine, name, "server_name is missing; visitor skipped.");
+            return;
+        }
+        String secretKey = section.get("sk");
+        if (secretKey == null || secretKey.isEmpty()) {
+            report.warning(sectionLine, name, "sk is empty; the server only accepts it for a proxy without sk.");
+            secretKey = "";
+        }
+        String bindAddr = section.get("bind_addr");
+        if (bindAddr == null || bindAddr.isEmpty()) {
+            bindAddr = DEFAULT_LOCAL_IP;
+        }
+        int bindPort = port(name, "bind_port");
+        if (bindPort < 0) {
+            return;
+        }
+        VisitorConfig visitor = new VisitorConfig(name, serverName, secretKey, bindAddr, bindPort);
+        for (VisitorConfig other : visitors) {
+            if (other.name.equals(name)) {
+                report.error(sectionLine, name, "Duplicate visitor name; visitor skipped.");
+                return;
+            }
+            if (other.bindAddress().equals(visitor.bindAddress())) {
+                report.error(lineOf("bind_port"), name, visitor.bindAddress() + " is already used by visitor "
+                        + other.name + "; visitor skipped.");
+                return;
+            }
+        }
+        visitors.add(visitor);
+    }
+
+    private void addProxy(String name, String localIp, int localPort, int remotePort, TransportProfile profile,
+                          ProxyPlugin plugin) {
+        if (proxies.add(name, ProxyTable.TYPE_TCP, localIp, localPort, remotePort, profile, plugin) < 0) {
+            report.error(sectionLine, name, "Duplicate proxy name; proxy skipped.");
+        }
+    }
+
+    /**
+     * Returns the port stored under key, or -1 after reporting why it is unusable.
+     */
+    private int port(String proxyName, String key) {
+        String skipped = visitorSection ? "; visitor skipped." : "; proxy skipped.";
+        String value = section.get(key);
+        if (value == null || value.isEmpty()) {
+            report.error(sectionLine, proxyName, key + " is missing" + skipped);
+            return -1;
+        }
+        int port = parsePort(value);
+        if (port < 0) {
+            report.error(lineOf(key), proxyName, "Invalid " + key + " " + value + skipped);
+        }
+        return port;
+    }
+
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value.trim());
+            return port >= 1 && port <= 65535 ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isPortList(String value) {
+        return value != null && (value.indexOf('-') >= 0 || value.indexOf(',') >= 0);
+    }
+
+    private ClientConfig finish() {
+        finishSection();
+        if (format == Format.AUTO) {
+            format = Format.INI; // Empty file; report against the original format
+        }
+
+        String serverAddr = common.get("server_addr");
+        if (serverAddr == null || serverAddr.isEmpty()) {
+            report.error(commonLine("server_addr"), null, format == Format.TOML
+                    ? "serverAddr is missing." : "server_addr is missing in [common].");
+            serverAddr = null;
+        }
+        int serverPort = 0;
+        String portValue = common.get("server_port");
+        if (portValue == null) {
+            report.error(commonLine("server_port"), null, format == Format.TOML
+                    ? "serverPort is missing." : "server_port is missing in [common].");
+        } else {
+            serverPort = Math.max(0, parsePort(portValue));
+            if (serverPort == 0) {
+                report.error(commonLine("server_port"), null, "Invalid server_port: " + portValue);
+            }
+        }
+        if (format == Format.INI) {
+            for (String key : common.keySet()) {
+                if (!COMMON_KEYS.contains(key)) {
+                    report.warning(commonLine(key), "common", "Unknown key ignored: " + key);
+                }
+            }
+        }
+
+        String protocol = "tcp";
+        String protocolValue = common.get("protocol");
+        if (protocolValue != null && !protocolValue.trim().isEmpty()) {
+            protocol = protocolValue.trim().toLowerCase();
+        }
+        KcpTransport.Options kcpOptions = null;
+        if ("kcp".equals(protocol)) {
+            try {
+                kcpOptions = KcpTransport.Options.fromConfig(common);
+            } catch (NumberFormatException e) {
+                report.error(0, null, "Invalid KCP option: " + e.getMessage() + "; using defaults.");
+                kcpOptions = new KcpTransport.Options();
+            }
+        } else if (!"tcp".equals(protocol)) {
+            report.error(commonLine("protocol"), null, "Unsupported protocol " + protocol + "; using tcp.");
+            protocol = "tcp";
+        }
+
+        return new ClientConfig(format, serverAddr, serverPort, common.get("token"), protocol, kcpOptions,
+                proxies, visitors, report);
+    }
+
+    // ---- Helpers ----
+
+    private int lineOf(String key) {
+        Integer line = sectionLines.get(key);
+        return line != null ? line : sectionLine;
+    }
+
+    private int commonLine(String key) {
+        Integer line = commonLines.get(key);
+        return line != null ? line : 0;
+    }
+
+    private String currentSectionLabel() {
+        if (scope == SCOPE_PROXY) {
+            if (sectionName != null) {
+                return sectionName;
+            }
+            String name = section.get("name");
+            return name != null ? name : visitorSection ? "visitors" : "proxies";
+        }
+        return scope == SCOPE_COMMON ? (format == Format.INI ? "common" : null) : null;
+    }
+
+    private static int skipSpaces(String line, int pos, int end) {
+        while (pos < end && (line.charAt(pos) == ' ' || line.charAt(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isName(String text, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isNameChar(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+}
@@ -0,0 +1,87 @@
+package com.promedia.frcclient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Short-lived cache of server address lookups, per network. Work connections dial the same
+ * server over and over; without the cache each one pays a DNS round trip first.
+ */
+final class DnsCache {
+
+    private static final class Key {
+        final NetworkSelector.Handle network;
+        final String host;
+
+        Key(NetworkSelector.Handle network, String host) {
+            this.network = network;
+            this.host = host;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return key.network == network && key.host.equals(host);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(network) * 31 + host.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlMs;
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    DnsCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Resolves the host through the given network (or the default one if null), using a cached
+     * answer while it is fresh.
+     */
+    InetAddress resolve(NetworkSelector.Handle network, String host) throws UnknownHostException {
+        Key key = new Key(network, host);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.addresses[0];
+            }
+        }
+        // Resolve outside the lock; a concurrent miss just resolves twice
+        InetAddress[] addresses = network != null ? network.resolve(host) : InetAddress.getAllByName(host);
+        if (addresses == null || addresses.length == 0) {
+            throw new UnknownHostException(host);
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(addresses, now + ttlMs));
+        }
+        return addresses[0];
+    }
+
+    /**
+     * Drops a cached answer, e.g. after connecting to it failed.
+     */
+    void invalidate(NetworkSelector.Handle network, String host) {
+        synchronized (entries) {
+            entries.remove(new Key(network, host));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.promedia.frcclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent event log: fixed-size binary records in a memory-mapped ring file.
+ *
+ * A record is an event code, wall-clock time, session id, proxy row and two numeric arguments.
+ * record() reserves a sequence number and writes the fields straight into the mapping, so the
+ * hot path neither formats strings nor allocates. Text (disconnect reasons, proxy names) is only
+ * written on cold paths, as TEXT continuation records that directly follow their event.
+ *
+ * Opening maps and scans the whole file, which is disk I/O, so the service creates the log with
+ * deferred() and maps it on an I/O thread; records made before the mapping is ready are dropped.
+ *
+ * The mapping lives in the page cache, so records survive the process being killed. The file is
+ * read with EventLogDecoder, which has no Android dependencies and runs off-device. This class
+ * must not use Android APIs either, since the decoder is compiled together with it.
+ */
+final class EventLog {
+
+    // Event codes. Never renumber: logs written by older builds must still decode.
+    static final short EVENT_TEXT = 0;              // Continuation: up to 16 UTF-8 bytes in the arguments
+    static final short EVENT_SESSION_START = 1;     // arg0 = 1 for KCP, 0 for TCP; text = server
+    static final short EVENT_PROFILE = 2;           // text = profile name of the session
+    static final short EVENT_CONNECTING = 3;        // text = network
+    static final short EVENT_CONNECTED = 4;         // arg0 = control dial time in ms
+    static final short EVENT_DISCONNECTED = 5;      // text = reason
+    static final short EVENT_LOGIN_REJECTED = 6;    // text = error
+    static final short EVENT_PROXY_NAME = 7;        // text = name of the proxy row
+    static final short EVENT_PROXY_REGISTERED = 8;  // arg0 = registration round trip in ms
+    static final short EVENT_PROXY_FAILED = 9;      // text = error
+    static final short EVENT_PING_RTT = 10;         // arg0 = sample ms, arg1 = smoothed ms
+    static final short EVENT_WORK_REQUESTED = 11;   // arg0 = trace id
+    static final short EVENT_WORK_REFUSED = 12;     // arg0 = budget used bytes, arg1 = budget limit
+    static final short EVENT_WORK_CONNECTED = 13;   // arg0 = trace id
+    static final short EVENT_WORK_FAILED = 14;      // arg0 = trace id; text = error
+    static final short EVENT_RELAY_END = 15;        // arg0 = bytes, arg1 = 0 server -> backend, 1 backend -> server
+    static final short EVENT_NETWORK_SELECTED = 16; // text = network
+    static final short EVENT_NETWORK_LOST = 17;     // text = network
+    static final short EVENT_HANDOVER = 18;         // arg0 = session id of the replaced session
+    static final short EVENT_VISITOR_LISTENING = 19; // text = bind address
+    static final short EVENT_VISITOR_CONNECTED = 20; // arg0 = accept to server reply in ms, arg1 = 1 if pre-dialed
+    static final short EVENT_VISITOR_FAILED = 21;    // text = error
+
+    static final String[] EVENT_NAMES = {
+            "text", "session_start", "profile", "connecting", "connected", "disconnected",
+            "login_rejected", "proxy_name", "proxy_registered", "proxy_failed", "ping_rtt",
+            "work_requested", "work_refused", "work_connected", "work_failed", "relay_end",
+            "network_selected", "network_lost", "handover", "visitor_listening", "visitor_connected",
+            "visitor_failed"
+    };
+
+    static final int NO_SESSION = 0;
+    static final int NO_PROXY = -1;
+
+    // File layout, little-endian: 64-byte header, then capacity records of RECORD_SIZE bytes
+    static final long MAGIC = 0x474F4C5645505246L; // "FRPEVLOG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 40;
+    static final int OFFSET_SEQ = 0;       // long, 0 = empty; written last
+    static final int OFFSET_TIME = 8;      // long, System.currentTimeMillis()
+    static final int OFFSET_CODE = 16;     // short
+    static final int OFFSET_SESSION = 18;  // short
+    static final int OFFSET_PROXY = 20;    // int
+    static final int OFFSET_ARG0 = 24;     // long
+    static final int OFFSET_ARG1 = 32;     // long
+    static final int TEXT_BYTES_PER_RECORD = 16;
+    private static final int MAX_TEXT_RECORDS = 8; // Longer text is truncated
+
+    /** Drops every record; used when the log file cannot be opened. */
+    static final EventLog DISABLED = disabled();
+
+    private volatile MappedByteBuffer buffer; // null when disabled or not mapped yet; published last
+    private int capacity;                     // Written before buffer
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final CountDownLatch ready = new CountDownLatch(1); // Released once map() has finished
+
+    private EventLog() {
+    }
+
+    private static EventLog disabled() {
+        EventLog log = new EventLog();
+        log.ready.countDown();
+        return log;
+    }
+
+    /**
+     * Returns a log that drops records until map() is called on it.
+     */
+    static EventLog deferred() {
+        return new EventLog();
+    }
+
+    /**
+     * Opens the ring file right away; see map().
+     */
+    static EventLog open(File file, int capacity) throws IOException {
+        EventLog log = new EventLog();
+        log.map(file, capacity);
+        return log;
+    }
+
+    /**
+     * Maps the ring file, creating or resetting it if it is missing or has a different layout,
+     * and appends after the newest record already in the file. If it fails the log stays
+     * disabled. Either way awaitReady() returns afterwards. Call once, off the main thread.
+     */
+    void map(File file, int capacity) throws IOException {
+        try {
+            mapFile(file, capacity);
+        } finally {
+            ready.countDown();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMs for map() to finish. Returns early if the thread is interrupted,
+     * keeping its interrupt status.
+     */
+    void awaitReady(long timeoutMs) {
+        try {
+            ready.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void mapFile(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean fresh = raf.length() != size;
+            if (fresh) {
+                raf.setLength(0); // Zero-fill: an empty slot has sequence 0
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (fresh || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+                    || buffer.getInt(12) != RECORD_SIZE || buffer.getInt(16) != capacity) {
+                if (!fresh) {
+                    for (int i = 0; i < size; i += 8) {
+                        buffer.putLong(i, 0);
+                    }
+                }
+                buffer.putLong(0, MAGIC);
+                buffer.putInt(8, VERSION);
+                buffer.putInt(12, RECORD_SIZE);
+                buffer.putInt(16, capacity);
+            }
+
+            long lastSeq = 0;
+            int lastSession = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                int base = HEADER_SIZE + slot * RECORD_SIZE;
+                long seq = buffer.getLong(base + OFFSET_SEQ);
+                if (seq > lastSeq) {
+                    // Session ids wrap, so continue from the newest record's id rather than the largest
+                    lastSeq = seq;
+                    lastSession = buffer.getShort(base + OFFSET_SESSION) & 0xffff;
+                }
+            }
+            this.capacity = capacity;
+            nextSeq.set(lastSeq + 1);
+            // Continue after the file's newest session, skipping any ids handed out before the mapping
+            nextSession.addAndGet(lastSession);
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Returns a new session id for a client. Ids are 16-bit and wrap.
+     */
+    int newSession() {
+        int session;
+        do {
+            session = nextSession.incrementAndGet() & 0xffff;
+        } while (session == NO_SESSION);
+        return session;
+    }
+
+    /**
+     * Appends one record. Safe to call from any thread; never allocates.
+     */
+    void record(short code, int session, int proxy, long arg0, long arg1) {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null) {
+            return;
+        }
+        write(mapped, nextSeq.getAndIncrement(), code, session, proxy, arg0, arg1);
+    }
+
+    /**
+     * Appends a record followed by the text in TEXT records. The records get consecutive sequence
+     * numbers, so the decoder can reassemble the text even when other threads log concurrently.
+     */
+    void recordText(short code, int session, int proxy, long arg0, long arg1, String text) {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null) {
+            return;
+        }
+        byte[] bytes = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int chunks = Math.min(MAX_TEXT_RECORDS, (bytes.length + TEXT_BYTES_PER_RECORD - 1) / TEXT_BYTES_PER_RECORD);
+        long seq = nextSeq.getAndAdd(1 + chunks);
+        write(mapped, seq, code, session, proxy, arg0, arg1);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int offset = chunk * TEXT_BYTES_PER_RECORD;
+            // The proxy field carries the byte count of the chunk
+            int length = Math.min(TEXT_BYTES_PER_RECORD, bytes.length - offset);
+            write(mapped, seq + 1 + chunk, EVENT_TEXT, session, length,
+                    packText(bytes, offset, length), packText(bytes, offset + 8, length - 8));
+        }
+    }
+
+    private static long packText(byte[] bytes, int offset, int length) {
+        long packed = 0;
+        for (int i = 0; i < Math.min(8, length); i++) {
+            packed |= (bytes[offset + i] & 0xffL) << (8 * i);
+        }
+        return packed;
+    }
+
+    private void write(MappedByteBuffer buffer, long seq, short code, int session, int proxy, long arg0, long arg1) {
+        int base = HEADER_SIZE + (int) ((seq - 1) % capacity) * RECORD_SIZE;
+        buffer.putLong(base + OFFSET_SEQ, 0); // Invalidate while the slot is rewritten
+        buffer.putLong(base + OFFSET_TIME, System.currentTimeMillis());
+        buffer.putShort(base + OFFSET_CODE, code);
+        buffer.putShort(base + OFFSET_SESSION, (short) session);
+        buffer.putInt(base + OFFSET_PROXY, proxy);
+        buffer.putLong(base + OFFSET_ARG0, arg0);
+        buffer.putLong(base + OFFSET_ARG1, arg1);
+        buffer.putLong(base + OFFSET_SEQ, seq);
+    }
+}
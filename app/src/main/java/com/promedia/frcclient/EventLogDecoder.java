@@ -0,0 +1,208 @@
+package com.promedia.frcclient;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Prints an EventLog ring file as text, oldest record first. Has no Android dependencies, so it
+ * runs on a workstation against a file pulled from the device:
+ *
+ * <pre>
+ * adb exec-out run-as com.promedia.frcclient cat files/events.bin &gt; events.bin
+ * javac -d out EventLog.java EventLogDecoder.java
+ * java -cp out com.promedia.frcclient.EventLogDecoder events.bin
+ * </pre>
+ *
+ * Each line shows UTC time, sequence number, session (with its profile once known), event, proxy
+ * name and the arguments that event uses.
+ */
+public final class EventLogDecoder {
+
+    // Argument labels per event code; null means the argument is unused
+    private static final String[][] ARG_LABELS = {
+            {null, null},               // text
+            {"kcp", null},              // session_start
+            {null, null},               // profile
+            {null, null},               // connecting
+            {"dial_ms", null},          // connected
+            {null, null},               // disconnected
+            {null, null},               // login_rejected
+            {null, null},               // proxy_name
+            {"rtt_ms", null},           // proxy_registered
+            {null, null},               // proxy_failed
+            {"sample_ms", "smoothed_ms"}, // ping_rtt
+            {"trace", null},            // work_requested
+            {"used_bytes", "limit_bytes"}, // work_refused
+            {"trace", null},            // work_connected
+            {"trace", null},            // work_failed
+            {"bytes", "to_server"},     // relay_end
+            {null, null},               // network_selected
+            {null, null},               // network_lost
+            {"replaced_session", null}, // handover
+            {null, null},               // visitor_listening
+            {"ms", "pre_dialed"},       // visitor_connected
+            {null, null},               // visitor_failed
+    };
+
+    static final class Record {
+        final long seq;
+        final long timeMillis;
+        final short code;
+        final int session;
+        final int proxy;
+        final long arg0;
+        final long arg1;
+        String text;
+
+        Record(long seq, long timeMillis, short code, int session, int proxy, long arg0, long arg1) {
+            this.seq = seq;
+            this.timeMillis = timeMillis;
+            this.code = code;
+            this.session = session;
+            this.proxy = proxy;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+        }
+    }
+
+    private EventLogDecoder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: EventLogDecoder <events.bin>");
+            System.exit(2);
+        }
+        print(read(args[0]), System.out);
+    }
+
+    /**
+     * Reads every record in sequence order, with TEXT continuations folded into their event.
+     */
+    static List<Record> read(String path) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < EventLog.HEADER_SIZE || buffer.getLong(0) != EventLog.MAGIC) {
+            throw new IOException("Not an FRP event log: " + path);
+        }
+        int version = buffer.getInt(8);
+        int recordSize = buffer.getInt(12);
+        int capacity = buffer.getInt(16);
+        if (version != EventLog.VERSION || recordSize != EventLog.RECORD_SIZE) {
+            throw new IOException("Unsupported event log version " + version + ", record size " + recordSize);
+        }
+        if (buffer.limit() < EventLog.HEADER_SIZE + (long) capacity * recordSize) {
+            throw new IOException("Truncated event log: " + path);
+        }
+
+        List<Record> raw = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = EventLog.HEADER_SIZE + slot * recordSize;
+            long seq = buffer.getLong(base + EventLog.OFFSET_SEQ);
+            if (seq == 0) {
+                continue;
+            }
+            raw.add(new Record(seq, buffer.getLong(base + EventLog.OFFSET_TIME),
+                    buffer.getShort(base + EventLog.OFFSET_CODE),
+                    buffer.getShort(base + EventLog.OFFSET_SESSION) & 0xffff,
+                    buffer.getInt(base + EventLog.OFFSET_PROXY),
+                    buffer.getLong(base + EventLog.OFFSET_ARG0),
+                    buffer.getLong(base + EventLog.OFFSET_ARG1)));
+        }
+        Collections.sort(raw, (a, b) -> Long.compare(a.seq, b.seq));
+
+        List<Record> records = new ArrayList<>(raw.size());
+        Record parent = null;
+        byte[] text = new byte[0];
+        int textLength = 0;
+        for (Record record : raw) {
+            if (record.code == EventLog.EVENT_TEXT) {
+                // Only attach to the event directly before it; orphans from an overwritten event are dropped
+                if (parent != null && record.seq == parent.seq + 1 + textLength / EventLog.TEXT_BYTES_PER_RECORD) {
+                    int length = Math.max(0, Math.min(EventLog.TEXT_BYTES_PER_RECORD, record.proxy));
+                    if (text.length < textLength + length) {
+                        text = Arrays.copyOf(text, (textLength + length) * 2);
+                    }
+                    unpack(record.arg0, text, textLength, Math.min(8, length));
+                    unpack(record.arg1, text, textLength + 8, length - 8);
+                    textLength += length;
+                    parent.text = new String(text, 0, textLength, StandardCharsets.UTF_8);
+                }
+                continue;
+            }
+            parent = record;
+            textLength = 0;
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static void unpack(long packed, byte[] out, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = (byte) (packed >>> (8 * i));
+        }
+    }
+
+    static void print(List<Record> records, PrintStream out) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Map<Integer, String> profiles = new HashMap<>();
+        Map<Long, String> proxyNames = new HashMap<>();
+
+        for (Record record : records) {
+            long proxyKey = ((long) record.session << 32) | (record.proxy & 0xffffffffL);
+            if (record.code == EventLog.EVENT_SESSION_START) {
+                // Session ids wrap; forget what an earlier session with this id was called
+                profiles.remove(record.session);
+            } else if (record.code == EventLog.EVENT_PROFILE && record.text != null) {
+                profiles.put(record.session, record.text);
+            } else if (record.code == EventLog.EVENT_PROXY_NAME && record.text != null) {
+                proxyNames.put(proxyKey, record.text);
+                continue;
+            }
+
+            StringBuilder line = new StringBuilder();
+            line.append(format.format(new Date(record.timeMillis)))
+                    .append(" #").append(record.seq)
+                    .append(" s").append(record.session);
+            String profile = profiles.get(record.session);
+            if (profile != null) {
+                line.append('(').append(profile).append(')');
+            }
+            boolean known = record.code >= 0 && record.code < EventLog.EVENT_NAMES.length;
+            line.append(' ').append(known ? EventLog.EVENT_NAMES[record.code] : "event_" + record.code);
+            if (record.proxy != EventLog.NO_PROXY) {
+                String name = proxyNames.get(proxyKey);
+                line.append(" [").append(name != null ? name : "proxy#" + record.proxy).append(']');
+            }
+            String[] labels = known && record.code < ARG_LABELS.length ? ARG_LABELS[record.code] : new String[]{"arg0", "arg1"};
+            if (labels[0] != null) {
+                line.append(' ').append(labels[0]).append('=').append(record.arg0);
+            }
+            if (labels[1] != null) {
+                line.append(' ').append(labels[1]).append('=').append(record.arg1);
+            }
+            if (record.text != null) {
+                line.append(" \"").append(record.text).append('"');
+            }
+            out.println(line);
+        }
+    }
+}
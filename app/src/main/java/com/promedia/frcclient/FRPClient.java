@@ -10,201 +10,290 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FRPClient {
 
     private static final String TAG = "FRPClient_Core";
     private static final int SOCKET_TIMEOUT_MS = 10000; // 10 seconds
-
-    private String serverAddr;
-    private int serverPort;
-    private String token;
-    private Map<String, ProxyConfig> proxyConfigs = new HashMap<>();
-
-    private Socket socket;
+    private static final int CONTROL_READ_TIMEOUT_MS = 90000; // Matches the default heartbeat timeout of frps
+    private static final int WORK_TRACE_CAPACITY = 256; // Most recent work connections kept for latency tracing
+    // A session taking over from another may be refused proxies until the server has dropped the old one
+    private static final int TAKEOVER_RETRIES = 5;
+    private static final int TAKEOVER_RETRY_MS = 1000;
+
+    private final String serverAddr;
+    private final int serverPort;
+    private final String token;
+    private final ProxyTable proxies; // Frozen; may be shared with other clients of the same config
+    private final List<VisitorConfig> visitorConfigs;
+    private final List<StcpVisitor> visitors = new ArrayList<>(); // Running while logged in; guarded by itself
+    private boolean visitorsStarted = false; // Guarded by visitors
+    private final WorkTraceRing workTraces = new WorkTraceRing(WORK_TRACE_CAPACITY);
+    private final RttEstimator rtt = new RttEstimator();
+    private volatile long pingSentNanos = 0; // When the last unanswered Ping was sent
+    // Proxies whose NewProxy request is in flight, mapped to the time it was sent
+    private final Map<String, Long> pendingProxies = new ConcurrentHashMap<>();
+    private volatile boolean registrationHeld = false; // Standby: proxies wait until this session takes over
+    private volatile boolean takeover = false;         // Registration was held; retry refused proxies
+    private volatile boolean loggedIn = false;         // LoginResp accepted
+    private volatile String runId = "";                // From LoginResp; visitors identify the session with it
+    private final AtomicBoolean proxiesRequested = new AtomicBoolean(); // NewProxy batch sent, at most once per login
+    private final Map<String, Integer> takeoverAttempts = new ConcurrentHashMap<>();
+
+    private final String protocol;
+    private final KcpTransport.Options kcpOptions;
+    // Set on the connecting thread, closed by disconnect() from any thread
+    private volatile ServerTransport transport; // Dials the control and work connections for this session
+    private volatile TunnelConn controlConn;
     private BufferedWriter writer;
     private BufferedReader reader;
     private volatile boolean isConnected = false; // volatile for thread visibility
+    private final AtomicBoolean closed = new AtomicBoolean(); // disconnect() ran; a client is used for one session only
     private FRPClientListener listener;
-    private ScheduledExecutorService pingScheduler;
-    private Thread connectionThread; // To manage the connection lifecycle
+    private final NetworkSelector.Handle network; // null means the system default network
+    private final ClientRuntime runtime; // Threads, buffers and DNS cache shared with every other session
+    private final EventLog eventLog;
+    private final int sessionId; // Identifies this client's records in the event log
+    private ScheduledFuture<?> pingTask;
+    private Future<?> connectionTask; // Control connection lifecycle, on a shared I/O thread
+    private final Object writeLock = new Object(); // Serializes writes from the reader and ping threads
 
     public interface FRPClientListener {
+        /** The server accepted the login; the proxies are being registered unless registration is held. */
         void onConnected();
         void onDisconnected(String reason);
         void onError(String error);
         void onLog(String message);
+        void onProxyStatus(String proxyName, boolean registered, String detail);
     }
 
     public FRPClient(String configContent, FRPClientListener listener) throws IllegalArgumentException {
-        this.listener = listener;
-        parseConfig(configContent);
-        if (serverAddr == null || serverAddr.isEmpty() || serverPort == 0) {
+        this(configContent, null, listener);
+    }
+
+    public FRPClient(String configContent, NetworkSelector.Handle network, FRPClientListener listener) throws IllegalArgumentException {
+        this(configContent, network, ClientRuntime.shared(), listener);
+    }
+
+    FRPClient(String configContent, NetworkSelector.Handle network, ClientRuntime runtime,
+              FRPClientListener listener) throws IllegalArgumentException {
+        this(reportConfig(ClientConfig.parse(configContent), listener), network, runtime, listener);
+    }
+
+    /**
+     * Creates a client from an already parsed snapshot. Its validation report is not repeated
+     * to the listener; the caller has it.
+     */
+    FRPClient(ClientConfig config, NetworkSelector.Handle network, ClientRuntime runtime,
+              FRPClientListener listener) throws IllegalArgumentException {
+        if (!config.isUsable()) {
             throw new IllegalArgumentException("Invalid FRP configuration: server_addr or server_port missing/invalid.");
         }
+        this.listener = listener;
+        this.network = network;
+        this.runtime = runtime;
+        this.serverAddr = config.serverAddr();
+        this.serverPort = config.serverPort();
+        this.token = config.token();
+        this.protocol = config.protocol();
+        this.kcpOptions = config.kcpOptions();
+        this.proxies = config.proxies();
+        this.visitorConfigs = config.visitors();
+        this.eventLog = runtime.eventLog();
+        this.sessionId = eventLog.newSession();
+        eventLog.recordText(EventLog.EVENT_SESSION_START, sessionId, EventLog.NO_PROXY,
+                "kcp".equals(protocol) ? 1 : 0, 0, serverAddr + ":" + serverPort);
+    }
+
+    /**
+     * Passes every validation issue to the listener: errors through onError, warnings through onLog.
+     */
+    static ClientConfig reportConfig(ClientConfig config, FRPClientListener listener) {
+        for (ValidationReport.Issue issue : config.report().issues()) {
+            if (issue.severity == ValidationReport.Severity.ERROR) {
+                listener.onError("Config error: " + issue);
+            } else {
+                listener.onLog("Config warning: " + issue);
+            }
+        }
+        listener.onLog("Parsed " + config.proxies().size() + " proxies and " + config.visitors().size()
+                + " visitors from " + config.format() + " configuration.");
+        return config;
     }
 
     public boolean isConnected() {
         return isConnected;
     }
 
+    /**
+     * True once the client has been disconnected, including while it was still connecting.
+     * A closed client cannot connect again; the caller creates a new one.
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public NetworkSelector.Handle getNetwork() {
+        return network;
+    }
+
+    /**
+     * Session id under which this client writes to the event log.
+     */
+    int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns latency traces of the most recent work connections, oldest first.
+     */
+    public List<String> exportWorkTraces() {
+        List<WorkTraceRing.Record> records = workTraces.snapshot(proxies);
+        List<String> lines = new ArrayList<>(records.size());
+        for (WorkTraceRing.Record record : records) {
+            lines.add(record.toString());
+        }
+        return lines;
+    }
+
     public void connect() {
-        if (isConnected || (connectionThread != null && connectionThread.isAlive())) {
+        if (closed.get()) {
+            listener.onLog("Client already disconnected; a new one is needed to reconnect.");
+            return;
+        }
+        if (isConnected || (connectionTask != null && !connectionTask.isDone())) {
             listener.onLog("Connection attempt already in progress or already connected.");
             return;
         }
 
-        connectionThread = new Thread(() -> {
+        connectionTask = runtime.ioExecutor().submit(() -> {
             try {
-                listener.onLog("Connecting to " + serverAddr + ":" + serverPort + "...");
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(serverAddr, serverPort), SOCKET_TIMEOUT_MS);
-                socket.setSoTimeout(SOCKET_TIMEOUT_MS); // Set read timeout
-
-                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-                reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                listener.onLog("Connecting to " + serverAddr + ":" + serverPort + " over " + protocol
+                        + (network != null ? " via " + network.id() : "") + "...");
+                eventLog.recordText(EventLog.EVENT_CONNECTING, sessionId, EventLog.NO_PROXY, 0, 0,
+                        network != null ? network.id() : "default");
+                long dialStart = System.nanoTime();
+                transport = "kcp".equals(protocol)
+                        ? new KcpTransport(network, kcpOptions, runtime.kcpDriver(), runtime.dnsCache(),
+                                runtime.relayBudget())
+                        : new TcpTransport(network, runtime.dnsCache());
+                controlConn = transport.dial(serverAddr, serverPort, SOCKET_TIMEOUT_MS);
+                ensureOpen();
+                eventLog.record(EventLog.EVENT_CONNECTED, sessionId, EventLog.NO_PROXY,
+                        (System.nanoTime() - dialStart) / 1000000L, 0);
+                // Longer than the ping interval, so an idle but healthy control connection stays up
+                controlConn.setReadTimeout(CONTROL_READ_TIMEOUT_MS);
+                // Control messages are small and latency-sensitive
+                controlConn.applyProfile(TransportProfile.INTERACTIVE);
+
+                writer = new BufferedWriter(new OutputStreamWriter(controlConn.getOutputStream()));
+                reader = new BufferedReader(new InputStreamReader(controlConn.getInputStream()));
+                ensureOpen();
                 isConnected = true;
                 listener.onLog("Connection established.");
 
-                // Send login message
+                // Send login message followed by every NewProxy request in a single flush,
+                // so registration costs one round trip regardless of the number of proxies
                 sendLoginMessage();
+                if (!registrationHeld && proxiesRequested.compareAndSet(false, true)) {
+                    registerProxies();
+                } else {
+                    flushWriter();
+                    listener.onLog("Proxy registration held until this session takes over.");
+                }
 
                 // Start ping mechanism
                 startPing();
 
                 // Keep reading from server (blocking call)
                 String line;
-                while (isConnected && socket != null && socket.isConnected() && (line = reader.readLine()) != null) {
-                    listener.onLog("Received from server: " + line);
+                while (isConnected && !closed.get() && controlConn != null && !controlConn.isClosed() && (line = reader.readLine()) != null) {
                     handleServerMessage(line);
                 }
+                // readLine() returns null when the server closes the connection cleanly
+                if (!closed.get()) {
+                    disconnect("Server closed the connection.");
+                }
 
             } catch (IOException e) {
-                if (isConnected) { // Only report error if we were previously connected or trying to connect
+                if (closed.get()) {
+                    // disconnect() closed the connection under us and has already reported it
+                } else if (isConnected) {
                     listener.onError("Connection error: " + e.getMessage());
                     disconnect("Connection lost: " + e.getMessage());
                 } else {
-                    // This is likely a failed initial connection attempt, handled by the service's retry logic
-                    listener.onLog("Initial connection failed: " + e.getMessage());
+                    // Failed initial connection attempt; the service retries on onDisconnected
                     disconnect("Initial connection failed: " + e.getMessage());
                 }
             } finally {
                 closeResources();
             }
         });
-        connectionThread.start();
     }
 
+    /**
+     * Ends the session, whatever state it is in: a dial or login in progress is aborted too.
+     * Reports onDisconnected once; later calls do nothing.
+     */
     public void disconnect(String reason) {
-        if (!isConnected && (socket == null || socket.isClosed())) {
-            // Already disconnected or not connected
-            return;
+        if (!closed.compareAndSet(false, true)) {
+            return; // Already disconnected
         }
         listener.onLog("Disconnecting FRP client: " + reason);
+        eventLog.recordText(EventLog.EVENT_DISCONNECTED, sessionId, EventLog.NO_PROXY, 0, 0, reason);
+        boolean wasConnected = isConnected;
         isConnected = false; // Set flag to stop loops
+        Future<?> task = connectionTask;
+        if (!wasConnected && task != null) {
+            // Interrupts a blocking TCP dial; connect() checks closed after each step for the rest
+            task.cancel(true);
+        }
         stopPing();
         closeResources();
+        failPendingProxies(reason);
         listener.onDisconnected(reason);
     }
 
     private void closeResources() {
+        stopVisitors();
+        TunnelConn conn = controlConn;
+        ServerTransport sessionTransport = transport;
         try {
-            if (writer != null) {
-                writer.close();
-            }
-            if (reader != null) {
-                reader.close();
+            // The connection first: it unblocks a readLine() holding the reader's lock
+            if (conn != null && !conn.isClosed()) {
+                conn.close();
             }
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (sessionTransport != null) {
+                // Work connections still relaying keep their own connections open
+                sessionTransport.close();
             }
         } catch (IOException e) {
             Log.e(TAG, "Error closing resources: " + e.getMessage());
         } finally {
+            controlConn = null;
+            transport = null;
+        }
+        synchronized (writeLock) {
+            // Streams of a closed connection; closing them only releases their buffers
             writer = null;
-            reader = null;
-            socket = null;
         }
+        reader = null;
     }
 
-    private void parseConfig(String configContent) {
-        Map<String, Map<String, String>> sections = new HashMap<>();
-        String currentSection = null;
-
-        Pattern sectionPattern = Pattern.compile("^\\[([a-zA-Z0-9_]+)\\]$");
-        Pattern keyValuePattern = Pattern.compile("^([a-zA-Z0-9_]+)\\s*=\\s*(.*)$");
-
-        String[] lines = configContent.split("\\r?\\n");
-        for (String line : lines) {
-            line = line.trim();
-            if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) {
-                continue; // Skip empty lines and comments
-            }
-
-            Matcher sectionMatcher = sectionPattern.matcher(line);
-            if (sectionMatcher.matches()) {
-                currentSection = sectionMatcher.group(1);
-                sections.put(currentSection, new HashMap<>());
-                continue;
-            }
-
-            Matcher keyValueMatcher = keyValuePattern.matcher(line);
-            if (keyValueMatcher.matches() && currentSection != null) {
-                String key = keyValueMatcher.group(1);
-                String value = keyValueMatcher.group(2);
-                sections.get(currentSection).put(key, value);
-            }
-        }
-
-        // Process common section
-        Map<String, String> common = sections.get("common");
-        if (common != null) {
-            serverAddr = common.get("server_addr");
-            try {
-                serverPort = Integer.parseInt(common.get("server_port"));
-            } catch (NumberFormatException e) {
-                serverPort = 0; // Invalid port
-                listener.onError("Invalid server_port in common section: " + common.get("server_port"));
-            } catch (NullPointerException e) {
-                listener.onError("server_port is missing in common section.");
-            }
-            token = common.get("token");
-        }
-
-        // Process proxy sections (e.g., [ssh], [vnc])
-        for (Map.Entry<String, Map<String, String>> entry : sections.entrySet()) {
-            String sectionName = entry.getKey();
-            Map<String, String> sectionData = entry.getValue();
-
-            if (!"common".equals(sectionName)) {
-                String type = sectionData.get("type");
-                if ("tcp".equals(type)) {
-                    try {
-                        ProxyConfig proxy = new ProxyConfig();
-                        proxy.name = sectionName;
-                        proxy.type = type;
-                        proxy.localIp = sectionData.get("local_ip");
-                        proxy.localPort = Integer.parseInt(sectionData.get("local_port"));
-                        proxy.remotePort = Integer.parseInt(sectionData.get("remote_port"));
-                        proxyConfigs.put(sectionName, proxy);
-                        listener.onLog("Parsed TCP proxy: " + sectionName + " -> " + proxy.localIp + ":" + proxy.localPort + " to remote port " + proxy.remotePort);
-                    } catch (NumberFormatException e) {
-                        listener.onError("Invalid port number in proxy [" + sectionName + "]: " + e.getMessage());
-                    } catch (NullPointerException e) {
-                        listener.onError("Missing required field in proxy [" + sectionName + "]: " + e.getMessage());
-                    }
-                }
-                // Add other proxy types if needed (e.g., udp, http, https)
-            }
+    /**
+     * Fails the connection attempt if disconnect() ran while it was in progress.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed.get()) {
+            throw new IOException("Client disconnected while connecting.");
         }
     }
 
@@ -219,24 +308,233 @@ public class FRPClient {
             content.put("token", token != null ? token : "");
             loginMsg.put("content", content);
 
-            String message = loginMsg.toString();
-            writer.write(message);
-            writer.newLine();
-            writer.flush();
+            // Not flushed here: registerProxies() flushes Login and NewProxy requests together
+            writeMessage(loginMsg, false);
             listener.onLog("Sent Login message.");
-            // Call onConnected after successful login message sent
-            listener.onConnected();
         } catch (JSONException e) {
             listener.onError("Failed to create login JSON: " + e.getMessage());
             disconnect("JSON error during login.");
         }
     }
 
+    private void registerProxies() throws IOException {
+        pendingProxies.clear();
+        // Names go to the event log on every login, so they stay in the ring next to the events using them
+        for (int i = 0; i < proxies.size(); i++) {
+            eventLog.recordText(EventLog.EVENT_PROXY_NAME, sessionId, i, 0, 0, proxies.name(i));
+        }
+        // Visitors are numbered after the proxies
+        for (int i = 0; i < visitorConfigs.size(); i++) {
+            eventLog.recordText(EventLog.EVENT_PROXY_NAME, sessionId, proxies.size() + i, 0, 0,
+                    visitorConfigs.get(i).name);
+        }
+        try {
+            for (int i = 0; i < proxies.size(); i++) {
+                JSONObject newProxyMsg = newProxyMessage(i);
+                pendingProxies.put(proxies.name(i), System.currentTimeMillis());
+                writeMessage(newProxyMsg, false);
+            }
+        } catch (JSONException e) {
+            listener.onError("Failed to create NewProxy JSON: " + e.getMessage());
+        }
+        // One flush for the whole batch; responses are matched in handleServerMessage
+        flushWriter();
+        listener.onLog("Sent " + pendingProxies.size() + " NewProxy request(s).");
+    }
+
+    private void flushWriter() throws IOException {
+        synchronized (writeLock) {
+            if (writer == null) {
+                throw new IOException("Connection closed during proxy registration.");
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * Makes connect() log in without registering proxies, for a standby session whose proxies
+     * are still held by the active one. Must be called before connect().
+     */
+    void holdRegistration() {
+        registrationHeld = true;
+        takeover = true;
+    }
+
+    /**
+     * Registers the proxies of a session created with holdRegistration() and starts its
+     * visitors, right away if it is logged in, otherwise as soon as the login is accepted.
+     * Visitors take over the listeners of the previous session before this returns, so the
+     * caller can disconnect that session without the local ports closing. Proxies the server
+     * still refuses because the previous session holds them are retried a few times.
+     */
+    void releaseRegistration() {
+        registrationHeld = false;
+        if (loggedIn) {
+            startVisitors(); // Binding or taking over a local listener does not block
+            runtime.ioExecutor().execute(this::requestProxies);
+        }
+    }
+
+    private void requestProxies() {
+        if (!proxiesRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            registerProxies();
+        } catch (IOException e) {
+            disconnect("Proxy registration failed: " + e.getMessage());
+        }
+    }
+
+    private JSONObject newProxyMessage(int row) throws JSONException {
+        JSONObject newProxyMsg = new JSONObject();
+        newProxyMsg.put("type", "NewProxy");
+        JSONObject content = new JSONObject();
+        content.put("proxy_name", proxies.name(row));
+        content.put("proxy_type", proxies.typeName(row));
+        content.put("remote_port", proxies.remotePort(row));
+        newProxyMsg.put("content", content);
+        return newProxyMsg;
+    }
+
+    private void sendNewProxy(int row) {
+        try {
+            JSONObject newProxyMsg = newProxyMessage(row);
+            pendingProxies.put(proxies.name(row), System.currentTimeMillis());
+            writeMessage(newProxyMsg, true);
+        } catch (IOException e) {
+            pendingProxies.remove(proxies.name(row));
+        } catch (JSONException e) {
+            listener.onError("Failed to create NewProxy JSON: " + e.getMessage());
+        }
+    }
+
+    private void handleNewProxyResp(JSONObject content) {
+        if (content == null) {
+            listener.onLog("Received NewProxyResp without content.");
+            return;
+        }
+        String proxyName = content.optString("proxy_name");
+        Long sentAt = pendingProxies.remove(proxyName);
+        if (sentAt == null) {
+            listener.onLog("Received NewProxyResp for unknown proxy: " + proxyName);
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - sentAt;
+        String error = content.optString("error");
+        int row = proxies.indexOf(proxyName);
+        if (error.isEmpty()) {
+            eventLog.record(EventLog.EVENT_PROXY_REGISTERED, sessionId, row, elapsed, 0);
+            listener.onProxyStatus(proxyName, true, "registered at " + content.optString("remote_addr") + " in " + elapsed + " ms");
+        } else {
+            eventLog.recordText(EventLog.EVENT_PROXY_FAILED, sessionId, row, 0, 0, error);
+            Integer attempts = takeoverAttempts.get(proxyName);
+            int attempt = attempts == null ? 1 : attempts + 1;
+            if (takeover && row >= 0 && attempt <= TAKEOVER_RETRIES) {
+                takeoverAttempts.put(proxyName, attempt);
+                listener.onLog("Proxy [" + proxyName + "] refused during takeover (" + error + "); retrying.");
+                runtime.timers().schedule(() -> {
+                    if (isConnected) {
+                        sendNewProxy(row);
+                    }
+                }, TAKEOVER_RETRY_MS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            listener.onProxyStatus(proxyName, false, error);
+        }
+    }
+
+    private void handleNewWork(JSONObject content) {
+        String proxyName = content != null ? content.optString("proxy_name") : "";
+        int row = proxies.indexOf(proxyName);
+        if (row < 0) {
+            listener.onLog("Server requested new work for unknown proxy: " + proxyName);
+            return;
+        }
+        ServerTransport sessionTransport = transport;
+        if (!isConnected || sessionTransport == null) {
+            return; // Tearing down: the request is not served, so it gets no trace either
+        }
+        long traceId = workTraces.begin(row);
+        eventLog.record(EventLog.EVENT_WORK_REQUESTED, sessionId, row, traceId, 0);
+        runtime.ioExecutor().execute(new WorkConnection(sessionTransport, serverAddr, serverPort, proxies.name(row),
+                proxies.localIp(row), proxies.localPort(row), proxies.profile(row), proxies.plugin(row), rtt,
+                runtime, listener, workTraces, traceId, sessionId, row));
+    }
+
+    /**
+     * Opens the local listener of every visitor. Their connections are dialed over TCP, which
+     * frps serves on server_port even when the control connection uses KCP. Runs at most once
+     * per session.
+     */
+    private void startVisitors() {
+        if (visitorConfigs.isEmpty()) {
+            return;
+        }
+        VisitorLoop loop;
+        try {
+            loop = runtime.visitorLoop();
+        } catch (IOException e) {
+            listener.onError("Cannot start visitors: " + e.getMessage());
+            return;
+        }
+        TcpTransport visitorTransport = new TcpTransport(network, runtime.dnsCache());
+        synchronized (visitors) {
+            if (!isConnected || visitorsStarted) {
+                return;
+            }
+            visitorsStarted = true;
+            for (int i = 0; i < visitorConfigs.size(); i++) {
+                VisitorConfig config = visitorConfigs.get(i);
+                StcpVisitor visitor = new StcpVisitor(config, proxies.size() + i, visitorTransport, serverAddr,
+                        serverPort, runId, runtime, loop, listener, sessionId);
+                try {
+                    visitor.start();
+                    visitors.add(visitor);
+                } catch (IOException e) {
+                    eventLog.recordText(EventLog.EVENT_VISITOR_FAILED, sessionId, proxies.size() + i, 0, 0,
+                            e.getMessage());
+                    listener.onError("Visitor [" + config.name + "] cannot listen on " + config.bindAddress()
+                            + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void stopVisitors() {
+        synchronized (visitors) {
+            for (StcpVisitor visitor : visitors) {
+                visitor.stop();
+            }
+            visitors.clear();
+        }
+    }
+
+    private void failPendingProxies(String reason) {
+        for (String proxyName : pendingProxies.keySet()) {
+            if (pendingProxies.remove(proxyName) != null) {
+                listener.onProxyStatus(proxyName, false, reason);
+            }
+        }
+    }
+
+    private void writeMessage(JSONObject message, boolean flush) throws IOException {
+        synchronized (writeLock) {
+            if (writer == null) {
+                throw new IOException("Not connected.");
+            }
+            writer.write(message.toString());
+            writer.newLine();
+            if (flush) {
+                writer.flush();
+            }
+        }
+    }
+
     private void startPing() {
-        stopPing(); // Ensure no duplicate schedulers
-        pingScheduler = Executors.newSingleThreadScheduledExecutor();
-        pingScheduler.scheduleAtFixedRate(() -> {
-            if (isConnected && socket != null && socket.isConnected()) {
+        stopPing(); // Ensure no duplicate schedules
+        pingTask = runtime.timers().scheduleAtFixedRate(() -> {
+            if (isConnected && controlConn != null && !controlConn.isClosed()) {
                 try {
                     JSONObject pingMsg = new JSONObject();
                     pingMsg.put("type", "Ping");
@@ -244,10 +542,8 @@ public class FRPClient {
                     content.put("timestamp", System.currentTimeMillis() / 1000);
                     pingMsg.put("content", content);
 
-                    String message = pingMsg.toString();
-                    writer.write(message);
-                    writer.newLine();
-                    writer.flush();
+                    pingSentNanos = System.nanoTime();
+                    writeMessage(pingMsg, true);
                     listener.onLog("Sent Ping message.");
                 } catch (IOException e) {
                     listener.onError("Ping failed: " + e.getMessage());
@@ -263,9 +559,10 @@ public class FRPClient {
     }
 
     private void stopPing() {
-        if (pingScheduler != null) {
-            pingScheduler.shutdownNow();
-            pingScheduler = null;
+        ScheduledFuture<?> task = pingTask;
+        if (task != null) {
+            task.cancel(false);
+            pingTask = null;
         }
     }
 
@@ -273,18 +570,49 @@ public class FRPClient {
         try {
             JSONObject jsonMsg = new JSONObject(message);
             String type = jsonMsg.optString("type");
+            if (!"NewWork".equals(type)) {
+                // NewWork is the hot path; it is recorded in the event log instead
+                listener.onLog("Received from server: " + message);
+            }
 
             switch (type) {
+                case "LoginResp":
+                    String loginError = jsonMsg.optJSONObject("content") != null ? jsonMsg.optJSONObject("content").optString("error") : "";
+                    if (!loginError.isEmpty()) {
+                        eventLog.recordText(EventLog.EVENT_LOGIN_REJECTED, sessionId, EventLog.NO_PROXY, 0, 0, loginError);
+                        listener.onError("Login rejected: " + loginError);
+                        disconnect("Login rejected.");
+                    } else {
+                        listener.onLog("Login accepted by server.");
+                        JSONObject loginContent = jsonMsg.optJSONObject("content");
+                        runId = loginContent != null ? loginContent.optString("run_id") : "";
+                        loggedIn = true;
+                        listener.onConnected();
+                        // A standby leaves the proxies and visitor listeners with the active session
+                        // until releaseRegistration()
+                        if (!registrationHeld) {
+                            requestProxies();
+                            startVisitors();
+                        }
+                    }
+                    break;
+                case "NewProxyResp":
+                    handleNewProxyResp(jsonMsg.optJSONObject("content"));
+                    break;
                 case "Pong":
                     listener.onLog("Received Pong from server.");
-                    // Reset timeout or confirm liveness
+                    long sentNanos = pingSentNanos;
+                    if (sentNanos != 0) {
+                        // Feeds relay chunk sizing for bulk proxies
+                        long sampleMillis = (System.nanoTime() - sentNanos) / 1000000L;
+                        rtt.update(sampleMillis);
+                        eventLog.record(EventLog.EVENT_PING_RTT, sessionId, EventLog.NO_PROXY, sampleMillis, rtt.millis());
+                        pingSentNanos = 0;
+                    }
                     break;
                 case "NewWork":
-                    // This is where the server tells the client to establish a new connection for a proxy
-                    // For this basic implementation, we will just log it.
-                    listener.onLog("Server requested new work for proxy: " + jsonMsg.optJSONObject("content").optString("proxy_name"));
-                    // A full implementation would now set up a new connection to the local_ip:local_port
-                    // and forward data through the main FRP connection. This is out of scope for this basic client.
+                    // The server wants a new work connection for one of our proxies
+                    handleNewWork(jsonMsg.optJSONObject("content"));
                     break;
                 case "AuthFailed":
                     listener.onError("Authentication failed: " + jsonMsg.optJSONObject("content").optString("error"));
@@ -301,13 +629,4 @@ public class FRPClient {
             listener.onError("Failed to parse server message JSON: " + e.getMessage() + " - Message: " + message);
         }
     }
-
-    // Simple class to hold proxy configuration
-    private static class ProxyConfig {
-        String name;
-        String type;
-        String localIp;
-        int localPort;
-        int remotePort;
-    }
 }
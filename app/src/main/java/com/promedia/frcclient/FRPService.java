@@ -12,7 +12,7 @@ import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
-import android.net.NetworkRequest;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
@@ -20,38 +20,117 @@ import android.os.Looper;
 import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs any number of named client profiles side by side. Every profile is an independent
+ * session (its own config, control connection, standby for handover and retry state), while
+ * threads, timers, relay buffers, DNS answers and the relay memory budget come from one
+ * ClientRuntime, and one NetworkSelector serves all of them.
+ */
 public class FRPService extends Service {
 
     private static final String TAG = "FRPClient_FRPService";
     private static final String CHANNEL_ID = "FRPClientServiceChannel";
     private static final int NOTIFICATION_ID = 1;
+    private static final String EVENT_LOG_FILE = "events.bin";
+    private static final int EVENT_LOG_CAPACITY = 200000; // 40-byte records, about 8 MB
 
     public static final String ACTION_START_FRP = "com.promedia.frcclient.ACTION_START_FRP";
     public static final String ACTION_STOP_FRP = "com.promedia.frcclient.ACTION_STOP_FRP";
-    public static final String ACTION_REQUEST_STATUS = "com.promedia.frcclient.ACTION_REQUEST_STATUS";
-    public static final String ACTION_SERVICE_STATUS_UPDATE = "com.promedia.frcclient.ACTION_SERVICE_STATUS_UPDATE";
+    public static final String ACTION_EXPORT_TRACES = "com.promedia.frcclient.ACTION_EXPORT_TRACES";
+    // Profile an intent applies to; START defaults to the default profile, STOP without it stops all
+    public static final String EXTRA_PROFILE = "profile";
+
+    /**
+     * Receives profile state changes and log lines from the service, on the main thread.
+     * Register through the LocalBinder returned by bindService().
+     */
+    public interface ServiceListener {
+        void onStateChanged(StateEvent event);
+
+        /** A log line; profile is null for service-wide messages. */
+        void onLog(long seq, String profile, String message);
+    }
+
+    /**
+     * Binder for in-process clients such as MainActivity.
+     */
+    public class LocalBinder extends Binder {
+        public FRPService getService() {
+            return FRPService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    // Iterated over a snapshot, so listeners may remove themselves during a callback. Each pass
+    // allocates one small iterator; callers return early with no listeners to skip even that.
+    private final CopyOnWriteArrayList<ServiceListener> listeners = new CopyOnWriteArrayList<>();
 
-    private FRPClient frpClient;
-    private ScheduledExecutorService scheduler;
+    // Main thread only
+    private final Map<String, ProfileSession> sessions = new LinkedHashMap<>();
+    private long nextSeq = 1; // Shared by state and log events
+    private ClientRuntime runtime;
+    private ProfileStore profileStore; // Remembers running profiles across process restarts
     private ConnectivityManager connectivityManager;
-    private ConnectivityManager.NetworkCallback networkCallback;
+    private NetworkSelector networkSelector;
+    private boolean networkSelectorStarted = false;
+    private boolean isForeground = false;
     private Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    private String currentConfig = "";
-    private boolean isAttemptingConnection = false;
+    private final ProfileSession.Host sessionHost = new ProfileSession.Host() {
+        @Override
+        public void log(String profile, String message) {
+            FRPService.this.log(profile, message);
+        }
+
+        @Override
+        public void onStateChanged(ProfileSession session) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            StateEvent event = session.currentEvent();
+            for (ServiceListener listener : listeners) {
+                listener.onStateChanged(event);
+            }
+        }
+
+        @Override
+        public void onNotificationChanged(ProfileSession session) {
+            refreshNotification();
+        }
+
+        @Override
+        public boolean isNetworkAvailable() {
+            return FRPService.this.isNetworkAvailable();
+        }
+
+        @Override
+        public long nextSeq() {
+            return nextSeq++;
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Service onCreate");
         createNotificationChannel();
+        profileStore = new ProfileStore(this);
         connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        networkSelector = new AndroidNetworkSelector(connectivityManager);
+        // Relay buffers of all profiles, including standbys during handover, draw from one budget
+        EventLog eventLog = EventLog.deferred();
+        runtime = new ClientRuntime(MemoryBudget.forHeap(Runtime.getRuntime().maxMemory()), eventLog);
+        // Mapping and scanning the file is disk I/O; records made until it is done are dropped
+        runtime.ioExecutor().execute(() -> openEventLog(eventLog));
     }
 
     @Override
@@ -60,31 +139,31 @@ public class FRPService extends Service {
 
         if (intent != null) {
             String action = intent.getAction();
+            String profile = intent.getStringExtra(EXTRA_PROFILE);
             if (ACTION_START_FRP.equals(action)) {
                 String config = intent.getStringExtra("config");
+                if (profile == null) {
+                    profile = ProfileStore.DEFAULT_PROFILE;
+                }
                 if (config != null && !config.isEmpty()) {
-                    currentConfig = config;
-                    startFRP(currentConfig);
+                    startFRP(profile, config);
                 } else {
-                    logAndBroadcast("Error: Configuration missing from intent. Cannot start FRP.");
-                    stopSelf(); // Stop service if no config
+                    log("Error: Configuration missing from intent. Cannot start FRP profile " + profile + ".");
+                    stopSelfIfIdle();
                 }
             } else if (ACTION_STOP_FRP.equals(action)) {
-                stopFRP();
-            } else if (ACTION_REQUEST_STATUS.equals(action)) {
-                // Main Activity is requesting status, send current status
-                sendServiceStatusUpdate();
+                if (profile != null) {
+                    stopFRP(profile);
+                } else {
+                    profileStore.clearRunning();
+                    stopAllFRP();
+                }
+            } else if (ACTION_EXPORT_TRACES.equals(action)) {
+                exportWorkTraces();
             }
         } else {
             // Service restarted by system (e.g., after being killed)
-            // If currentConfig is not empty, try to restart FRP
-            if (!currentConfig.isEmpty()) {
-                logAndBroadcast("Service restarted by system. Attempting to resume FRP connection.");
-                startFRP(currentConfig);
-            } else {
-                logAndBroadcast("Service restarted by system, but no previous configuration found. Stopping.");
-                stopSelf();
-            }
+            restoreProfiles();
         }
 
         // START_STICKY means the service will be recreated if it's killed by the system
@@ -92,180 +171,151 @@ public class FRPService extends Service {
         return START_STICKY;
     }
 
-    private void startFRP(String config) {
-        if (frpClient != null && frpClient.isConnected()) {
-            logAndBroadcast("FRP Client already running and connected.");
-            sendServiceStatusUpdate();
+    /**
+     * Brings back the profiles that were running when the process died. The restarted process
+     * starts with no sessions, so, like BootReceiver, this goes by what ProfileStore saved.
+     */
+    private void restoreProfiles() {
+        if (!sessions.isEmpty()) {
+            log("Service restarted by system. Attempting to resume FRP connections.");
+            for (ProfileSession session : sessions.values()) {
+                session.reconnectNow();
+            }
             return;
         }
-        if (isAttemptingConnection) {
-            logAndBroadcast("Already attempting connection. Please wait.");
-            return;
+        for (String profile : profileStore.runningProfiles()) {
+            String config = profileStore.loadConfig(profile);
+            if (config.isEmpty()) {
+                profileStore.setRunning(profile, false);
+                continue;
+            }
+            log(profile, "Service restarted by system. Restarting FRP profile.");
+            startFRP(profile, config);
         }
+        if (sessions.isEmpty()) {
+            log("Service restarted by system, but no profile was running. Stopping.");
+            stopSelf();
+        }
+    }
 
-        logAndBroadcast("Starting FRP Client with provided configuration...");
-        isAttemptingConnection = true;
-        sendServiceStatusUpdate();
-
-        // Start as foreground service
-        startForeground(NOTIFICATION_ID, buildNotification("FRP Client: Connecting..."));
-
-        // Initialize and start FRPClient in a separate thread
-        if (scheduler != null && !scheduler.isShutdown()) {
-            scheduler.shutdownNow(); // Stop any previous retry attempts
+    private void openEventLog(EventLog eventLog) {
+        try {
+            eventLog.map(new File(getFilesDir(), EVENT_LOG_FILE), EVENT_LOG_CAPACITY);
+        } catch (IOException e) {
+            Log.e(TAG, "Event log unavailable: " + e.getMessage());
         }
-        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
 
-        // Initial connection attempt
-        scheduler.execute(() -> connectFRP(config));
+    private void startFRP(String profile, String config) {
+        ProfileSession session = sessions.get(profile);
+        if (session != null && !session.config.equals(config)) {
+            // New configuration for a running profile: restart it rather than keep the old one
+            session.stop("Configuration changed.");
+            sessions.remove(profile);
+            session = null;
+        }
+        if (session == null) {
+            session = new ProfileSession(profile, config, runtime, networkSelector, mainHandler::post, sessionHost);
+            sessions.put(profile, session);
+        }
 
+        if (!isForeground) {
+            // Start as foreground service
+            startForeground(NOTIFICATION_ID, buildNotification(notificationSummary()));
+            isForeground = true;
+        }
         // Set up network callback for automatic reconnection
         registerNetworkCallback();
+        profileStore.setRunning(profile, true);
+        session.start();
     }
 
-    private void connectFRP(String config) {
-        mainHandler.post(() -> logAndBroadcast("Attempting to connect to FRP server..."));
-        try {
-            if (frpClient == null) {
-                frpClient = new FRPClient(config, new FRPClient.FRPClientListener() {
-                    @Override
-                    public void onConnected() {
-                        mainHandler.post(() -> {
-                            isAttemptingConnection = false;
-                            logAndBroadcast("FRP Client Connected!");
-                            updateNotification("FRP Client: Connected");
-                            sendServiceStatusUpdate();
-                        });
-                    }
-
-                    @Override
-                    public void onDisconnected(String reason) {
-                        mainHandler.post(() -> {
-                            logAndBroadcast("FRP Client Disconnected: " + reason);
-                            updateNotification("FRP Client: Disconnected. Retrying...");
-                            isAttemptingConnection = true; // Re-enable retry logic
-                            sendServiceStatusUpdate();
-                            scheduleReconnect();
-                        });
-                    }
-
-                    @Override
-                    public void onError(String error) {
-                        mainHandler.post(() -> {
-                            logAndBroadcast("FRP Client Error: " + error);
-                            updateNotification("FRP Client: Error. Retrying...");
-                            isAttemptingConnection = true; // Re-enable retry logic
-                            sendServiceStatusUpdate();
-                            scheduleReconnect();
-                        });
-                    }
-
-                    @Override
-                    public void onLog(String message) {
-                        mainHandler.post(() -> logAndBroadcast(message));
-                    }
-                });
-            }
+    private void stopFRP(String profile) {
+        profileStore.setRunning(profile, false);
+        ProfileSession session = sessions.remove(profile);
+        if (session == null) {
+            log("FRP profile " + profile + " is not running.");
+            stopSelfIfIdle();
+            return;
+        }
+        session.stop("User stopped profile.");
+        if (sessions.isEmpty()) {
+            stopService();
+        } else {
+            refreshNotification();
+        }
+    }
 
-            // Attempt connection
-            frpClient.connect();
+    private void stopAllFRP() {
+        for (ProfileSession session : new ArrayList<>(sessions.values())) {
+            session.stop("User stopped service.");
+        }
+        sessions.clear();
+        stopService();
+    }
 
-        } catch (Exception e) {
-            mainHandler.post(() -> {
-                logAndBroadcast("FRP Client initialization error: " + e.getMessage());
-                isAttemptingConnection = true; // Re-enable retry logic
-                sendServiceStatusUpdate();
-                scheduleReconnect();
-            });
+    private void stopService() {
+        unregisterNetworkCallback();
+        if (isForeground) {
+            stopForeground(true);
+            isForeground = false;
         }
+        stopSelf(); // Stop the service itself
     }
 
-    private void scheduleReconnect() {
-        if (!isAttemptingConnection) {
-            // Only schedule reconnect if not already trying
-            isAttemptingConnection = true;
-            logAndBroadcast("Scheduling reconnect in 5 seconds...");
-            scheduler.schedule(() -> {
-                if (isNetworkAvailable()) {
-                    connectFRP(currentConfig);
-                } else {
-                    logAndBroadcast("Network not available, postponing reconnect.");
-                    scheduleReconnect(); // Reschedule if network is still down
-                }
-            }, 5, TimeUnit.SECONDS);
+    private void stopSelfIfIdle() {
+        if (sessions.isEmpty()) {
+            stopSelf();
         }
     }
 
-    private void stopFRP() {
-        logAndBroadcast("Stopping FRP Client...");
-        if (scheduler != null) {
-            scheduler.shutdownNow();
+    private void exportWorkTraces() {
+        if (sessions.isEmpty()) {
+            log("No FRP session, no work connection traces to export.");
+            return;
         }
-        if (frpClient != null) {
-            frpClient.disconnect("User stopped service.");
-            frpClient = null;
+        for (ProfileSession session : sessions.values()) {
+            session.exportWorkTraces();
         }
-        isAttemptingConnection = false;
-        unregisterNetworkCallback();
-        stopForeground(true);
-        stopSelf(); // Stop the service itself
-        logAndBroadcast("FRP Client Stopped.");
-        sendServiceStatusUpdate();
     }
 
     private void registerNetworkCallback() {
-        if (networkCallback == null) {
-            networkCallback = new ConnectivityManager.NetworkCallback() {
-                @Override
-                public void onAvailable(Network network) {
-                    super.onAvailable(network);
-                    mainHandler.post(() -> {
-                        logAndBroadcast("Network became available. Attempting reconnection...");
-                        if (!isAttemptingConnection && !currentConfig.isEmpty()) {
-                            // If not already trying to connect and config exists, try to connect
-                            isAttemptingConnection = true;
-                            scheduler.execute(() -> connectFRP(currentConfig));
-                        }
-                    });
-                }
+        if (networkSelectorStarted) {
+            return;
+        }
+        networkSelectorStarted = true;
+        // One selector for every profile; each session decides whether to hand over
+        networkSelector.start(new NetworkSelector.Callback() {
+            @Override
+            public void onNetworkSelected(NetworkSelector.Handle network) {
+                runtime.eventLog().recordText(EventLog.EVENT_NETWORK_SELECTED, EventLog.NO_SESSION, EventLog.NO_PROXY,
+                        0, 0, network.id());
+                mainHandler.post(() -> {
+                    for (ProfileSession session : sessions.values()) {
+                        session.onNetworkSelected(network);
+                    }
+                });
+            }
 
-                @Override
-                public void onLost(Network network) {
-                    super.onLost(network);
-                    mainHandler.post(() -> {
-                        logAndBroadcast("Network lost. Disconnecting FRP client.");
-                        if (frpClient != null) {
-                            frpClient.disconnect("Network lost.");
-                        }
-                        isAttemptingConnection = true; // Ensure retry logic kicks in
-                        updateNotification("FRP Client: Network lost.");
-                        sendServiceStatusUpdate();
-                    });
-                }
-            };
-
-            NetworkRequest.Builder builder = new NetworkRequest.Builder();
-            builder.addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                connectivityManager.registerNetworkCallback(builder.build(), networkCallback);
-            } else {
-                // For older APIs, this might be less granular.
-                // We rely more on the infinite retry logic for network availability.
-                connectivityManager.registerNetworkCallback(builder.build(), networkCallback);
+            @Override
+            public void onNetworkLost(NetworkSelector.Handle network) {
+                runtime.eventLog().recordText(EventLog.EVENT_NETWORK_LOST, EventLog.NO_SESSION, EventLog.NO_PROXY,
+                        0, 0, network.id());
+                mainHandler.post(() -> {
+                    for (ProfileSession session : sessions.values()) {
+                        session.onNetworkLost(network);
+                    }
+                });
             }
-            logAndBroadcast("Network callback registered.");
-        }
+        });
+        log("Network callback registered.");
     }
 
     private void unregisterNetworkCallback() {
-        if (connectivityManager != null && networkCallback != null) {
-            try {
-                connectivityManager.unregisterNetworkCallback(networkCallback);
-                networkCallback = null;
-                logAndBroadcast("Network callback unregistered.");
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Network callback was not registered: " + e.getMessage());
-            }
+        if (networkSelectorStarted) {
+            networkSelector.stop();
+            networkSelectorStarted = false;
+            log("Network callback unregistered.");
         }
     }
 
@@ -313,48 +363,91 @@ public class FRPService extends Service {
                 .build();
     }
 
-    private void updateNotification(String contentText) {
+    private void refreshNotification() {
+        if (!isForeground) {
+            return;
+        }
         NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         if (manager != null) {
-            manager.notify(NOTIFICATION_ID, buildNotification(contentText));
+            manager.notify(NOTIFICATION_ID, buildNotification(notificationSummary()));
         }
     }
 
-    private void logAndBroadcast(String message) {
-        Log.d(TAG, message);
-        Intent intent = new Intent(ACTION_SERVICE_STATUS_UPDATE);
-        intent.putExtra("log", message);
-        // Also update status if it's a critical message
-        if (message.contains("Connected") || message.contains("Disconnected") || message.contains("Error") || message.contains("Stopping")) {
-            intent.putExtra("status", message);
+    /**
+     * One notification for the whole service, listing each profile's state.
+     */
+    private String notificationSummary() {
+        if (sessions.size() == 1) {
+            ProfileSession only = sessions.values().iterator().next();
+            return "FRP Client: " + only.notificationText();
+        }
+        StringBuilder summary = new StringBuilder();
+        for (ProfileSession session : sessions.values()) {
+            summary.append(summary.length() == 0 ? "" : ", ").append(session.name).append(": ").append(session.notificationText());
         }
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        return summary.length() == 0 ? "FRP Client: Connecting..." : summary.toString();
     }
 
-    private void sendServiceStatusUpdate() {
-        Intent intent = new Intent(ACTION_SERVICE_STATUS_UPDATE);
-        String status = "Idle";
-        if (frpClient != null && frpClient.isConnected()) {
-            status = "Running and Connected";
-        } else if (isAttemptingConnection) {
-            status = "Running (Attempting Connection)";
-        } else if (frpClient != null && !frpClient.isConnected()) {
-            status = "Running (Disconnected)";
-        }
-        intent.putExtra("status", status);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    private void log(String message) {
+        log(null, message);
+    }
+
+    private void log(String profile, String message) {
+        Log.d(TAG, profile != null ? "[" + profile + "] " + message : message);
+        long seq = nextSeq++;
+        if (listeners.isEmpty()) {
+            return;
+        }
+        for (ServiceListener listener : listeners) {
+            listener.onLog(seq, profile, message);
+        }
+    }
+
+    /**
+     * Registers a listener and immediately replays the current state of every running profile.
+     * Must be called on the main thread.
+     */
+    public void addListener(ServiceListener listener) {
+        listeners.addIfAbsent(listener);
+        for (ProfileSession session : sessions.values()) {
+            listener.onStateChanged(session.currentEvent());
+        }
+    }
+
+    public void removeListener(ServiceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Current state of a profile; IDLE if it is not running. Must be called on the main thread.
+     */
+    public ProfileState getState(String profile) {
+        ProfileSession session = sessions.get(profile);
+        return session != null ? session.state() : ProfileState.IDLE;
+    }
+
+    /**
+     * Latest state event of every running profile. Must be called on the main thread.
+     */
+    public List<StateEvent> getStates() {
+        List<StateEvent> states = new ArrayList<>(sessions.size());
+        for (ProfileSession session : sessions.values()) {
+            states.add(session.currentEvent());
+        }
+        return states;
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null; // Not using bound service
+        return binder;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "Service onDestroy");
-        stopFRP(); // Ensure everything is cleaned up
+        stopAllFRP(); // Ensure everything is cleaned up
+        runtime.shutdown();
     }
 }
@@ -0,0 +1,119 @@
+package com.promedia.frcclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP forward proxy on the work connection. CONNECT requests are tunneled; plain requests with
+ * an absolute URI are rewritten to origin form and forwarded with {@code Connection: close}, so
+ * the rest of the exchange can be relayed byte for byte.
+ */
+class HttpProxyPlugin implements ProxyPlugin {
+
+    private final String user;
+    private final String password;
+
+    HttpProxyPlugin(String user, String password) {
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public Socket handle(TunnelConn conn, InputStream in) throws IOException {
+        OutputStream out = conn.getOutputStream();
+        HttpRequestHead head = HttpRequestHead.read(in);
+        if (head == null) {
+            return null;
+        }
+        if (!head.isAuthorized("Proxy-Authorization", user, password)) {
+            respond(out, "407 Proxy Authentication Required", "Proxy-Authenticate: Basic realm=\"frpc\"\r\n");
+            return null;
+        }
+
+        if ("CONNECT".equalsIgnoreCase(head.method)) {
+            int colon = head.target.lastIndexOf(':');
+            if (colon <= 0) {
+                respond(out, "400 Bad Request", "");
+                return null;
+            }
+            Socket target = connect(out, head.target.substring(0, colon), parsePort(head.target.substring(colon + 1)));
+            if (target != null) {
+                out.write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+            return target;
+        }
+
+        URI uri;
+        try {
+            uri = new URI(head.target);
+        } catch (URISyntaxException e) {
+            uri = null;
+        }
+        if (uri == null || !"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            respond(out, "400 Bad Request", "");
+            return null;
+        }
+        Socket target = connect(out, uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 80);
+        if (target == null) {
+            return null;
+        }
+
+        StringBuilder forwarded = new StringBuilder();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        forwarded.append(head.method).append(' ').append(path).append(' ').append(head.version).append("\r\n");
+        for (String header : head.headers) {
+            String name = header.substring(0, Math.max(0, header.indexOf(':'))).trim();
+            if (name.equalsIgnoreCase("Proxy-Authorization") || name.equalsIgnoreCase("Proxy-Connection")
+                    || name.equalsIgnoreCase("Connection")) {
+                continue;
+            }
+            forwarded.append(header).append("\r\n");
+        }
+        // One request per work connection: later requests may target a different host
+        forwarded.append("Connection: close\r\n\r\n");
+        OutputStream targetOut = target.getOutputStream();
+        targetOut.write(forwarded.toString().getBytes(StandardCharsets.ISO_8859_1));
+        targetOut.flush();
+        return target;
+    }
+
+    private static Socket connect(OutputStream out, String host, int port) throws IOException {
+        if (port <= 0) {
+            respond(out, "400 Bad Request", "");
+            return null;
+        }
+        Socket target = new Socket();
+        try {
+            target.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            return target;
+        } catch (IOException e) {
+            target.close();
+            respond(out, "502 Bad Gateway", "");
+            return null;
+        }
+    }
+
+    private static int parsePort(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String extraHeaders) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + extraHeaders + "Content-Length: 0\r\nConnection: close\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+}
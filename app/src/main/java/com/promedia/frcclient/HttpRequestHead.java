@@ -0,0 +1,102 @@
+package com.promedia.frcclient;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request line and headers of an HTTP/1.x request, shared by the http_proxy and static_file
+ * plugins. Only the head is consumed from the stream; any body stays unread.
+ */
+final class HttpRequestHead {
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    final String method;
+    final String target;
+    final String version;
+    /** Header lines in order, as "Name: value". */
+    final List<String> headers;
+
+    private HttpRequestHead(String method, String target, String version, List<String> headers) {
+        this.method = method;
+        this.target = target;
+        this.version = version;
+        this.headers = headers;
+    }
+
+    /**
+     * Reads a request head, or returns null if the stream ended before one arrived.
+     */
+    static HttpRequestHead read(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+            throw new IOException("Malformed HTTP request line: " + requestLine);
+        }
+        List<String> headers = new ArrayList<>();
+        int total = requestLine.length();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            total += line.length();
+            if (total > MAX_HEAD_SIZE) {
+                throw new IOException("HTTP request head too large.");
+            }
+            headers.add(line);
+        }
+        return new HttpRequestHead(parts[0], parts[1], parts[2], headers);
+    }
+
+    /**
+     * Returns the value of the first header with the given name (case-insensitive), or null.
+     */
+    String header(String name) {
+        for (String header : headers) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return header.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks Basic credentials in the given header. Always passes when no user is configured.
+     */
+    boolean isAuthorized(String headerName, String user, String password) {
+        if (user == null || user.isEmpty()) {
+            return true;
+        }
+        String expected = "Basic " + Base64.encodeToString(
+                (user + ":" + (password != null ? password : "")).getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+        return expected.equals(header(headerName));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+            if (line.size() > MAX_HEAD_SIZE) {
+                throw new IOException("HTTP header line too long.");
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,724 @@
+package com.promedia.frcclient;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * Pure-Java port of the KCP ARQ protocol (ikcp.c by skywind3000).
+ *
+ * Not thread-safe: callers serialize access. Timestamps are milliseconds in a wrapping 32-bit
+ * clock and sequence numbers wrap too, so every ordering comparison goes through diff().
+ * Wire format is little-endian and matches the C implementation.
+ */
+final class Kcp {
+
+    interface Output {
+        void output(byte[] data, int length);
+    }
+
+    static final int OVERHEAD = 24;
+
+    private static final int RTO_NDL = 30;     // No-delay minimum RTO
+    private static final int RTO_MIN = 100;    // Normal minimum RTO
+    private static final int RTO_DEF = 200;
+    private static final int RTO_MAX = 60000;
+    private static final int CMD_PUSH = 81;    // Data
+    private static final int CMD_ACK = 82;
+    private static final int CMD_WASK = 83;    // Window probe (ask)
+    private static final int CMD_WINS = 84;    // Window size (tell)
+    private static final int ASK_SEND = 1;
+    private static final int ASK_TELL = 2;
+    private static final int WND_SND = 32;
+    private static final int WND_RCV = 128;
+    private static final int MTU_DEF = 1400;
+    private static final int INTERVAL = 100;
+    private static final int DEADLINK = 20;
+    private static final int THRESH_INIT = 2;
+    private static final int THRESH_MIN = 2;
+    private static final int PROBE_INIT = 7000;
+    private static final int PROBE_LIMIT = 120000;
+    private static final int FASTACK_LIMIT = 5;
+
+    private static final class Segment {
+        int conv;
+        int cmd;
+        int frg;
+        int wnd;
+        int ts;
+        int sn;
+        int una;
+        int resendts;
+        int rto;
+        int fastack;
+        int xmit;
+        final byte[] data;
+
+        Segment(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final int conv;
+    private final Output output;
+    private int mtu = MTU_DEF;
+    private int mss = MTU_DEF - OVERHEAD;
+    private int state = 0;
+    private int sndUna;
+    private int sndNxt;
+    private int rcvNxt;
+    private int ssthresh = THRESH_INIT;
+    private int rxRttval;
+    private int rxSrtt;
+    private int rxRto = RTO_DEF;
+    private int rxMinrto = RTO_MIN;
+    private int sndWnd = WND_SND;
+    private int rcvWnd = WND_RCV;
+    private int rmtWnd = WND_RCV;
+    private int rcvCap = Integer.MAX_VALUE; // Further limits the receive window, e.g. to a memory budget
+    private int cwnd;
+    private int probe;
+    private int current;
+    private int interval = INTERVAL;
+    private int tsFlush = INTERVAL;
+    private int nodelay;
+    private boolean updated;
+    private int tsProbe;
+    private int probeWait;
+    private int deadLink = DEADLINK;
+    private int incr;
+    private int fastresend;
+    private int fastlimit = FASTACK_LIMIT;
+    private boolean nocwnd;
+    private boolean stream;
+
+    private final ArrayDeque<Segment> sndQueue = new ArrayDeque<>();
+    private final ArrayDeque<Segment> rcvQueue = new ArrayDeque<>();
+    private final LinkedList<Segment> sndBuf = new LinkedList<>();
+    private final LinkedList<Segment> rcvBuf = new LinkedList<>();
+    private int[] ackList = new int[16]; // (sn, ts) pairs
+    private int ackCount;
+    private byte[] buffer = new byte[(MTU_DEF + OVERHEAD) * 3];
+
+    Kcp(int conv, Output output) {
+        this.conv = conv;
+        this.output = output;
+    }
+
+    /**
+     * Copies the next message into buf. Returns its size, or a negative value if nothing is
+     * ready (-1, -2) or buf is too small (-3).
+     */
+    int recv(byte[] buf, int offset, int length) {
+        if (rcvQueue.isEmpty()) {
+            return -1;
+        }
+        int peek = peekSize();
+        if (peek < 0) {
+            return -2;
+        }
+        if (peek > length) {
+            return -3;
+        }
+        boolean recover = rcvQueue.size() >= receiveLimit();
+
+        int n = 0;
+        while (!rcvQueue.isEmpty()) {
+            Segment seg = rcvQueue.poll();
+            System.arraycopy(seg.data, 0, buf, offset + n, seg.data.length);
+            n += seg.data.length;
+            if (seg.frg == 0) {
+                break;
+            }
+        }
+
+        moveReceived();
+
+        // Tell the remote our window has reopened
+        if (rcvQueue.size() < receiveLimit() && recover) {
+            probe |= ASK_TELL;
+        }
+        return n;
+    }
+
+    /**
+     * Size of the next complete message in the receive queue, or -1 if none.
+     */
+    int peekSize() {
+        Segment first = rcvQueue.peek();
+        if (first == null) {
+            return -1;
+        }
+        if (first.frg == 0) {
+            return first.data.length;
+        }
+        if (rcvQueue.size() < first.frg + 1) {
+            return -1;
+        }
+        int length = 0;
+        for (Segment seg : rcvQueue) {
+            length += seg.data.length;
+            if (seg.frg == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Queues data for sending. Returns 0, or -2 if the message would need too many fragments.
+     */
+    int send(byte[] data, int offset, int length) {
+        if (stream && !sndQueue.isEmpty()) {
+            // Append to the last queued segment first
+            Segment old = sndQueue.peekLast();
+            if (old.data.length < mss) {
+                int extend = Math.min(length, mss - old.data.length);
+                Segment seg = new Segment(old.data.length + extend);
+                System.arraycopy(old.data, 0, seg.data, 0, old.data.length);
+                System.arraycopy(data, offset, seg.data, old.data.length, extend);
+                seg.frg = 0;
+                sndQueue.pollLast();
+                sndQueue.add(seg);
+                offset += extend;
+                length -= extend;
+            }
+            if (length <= 0) {
+                return 0;
+            }
+        }
+
+        int count = length <= mss ? 1 : (length + mss - 1) / mss;
+        if (count >= WND_RCV) {
+            return -2;
+        }
+        for (int i = 0; i < count; i++) {
+            int size = Math.min(length, mss);
+            Segment seg = new Segment(size);
+            System.arraycopy(data, offset, seg.data, 0, size);
+            seg.frg = stream ? 0 : count - i - 1;
+            sndQueue.add(seg);
+            offset += size;
+            length -= size;
+        }
+        return 0;
+    }
+
+    /**
+     * Feeds a received datagram. Returns 0, or a negative value if it is malformed or for another conv.
+     */
+    int input(byte[] data, int offset, int size) {
+        int prevUna = sndUna;
+        int maxAck = 0;
+        int latestTs = 0;
+        boolean ackSeen = false;
+
+        if (size < OVERHEAD) {
+            return -1;
+        }
+        while (size >= OVERHEAD) {
+            int segConv = readInt(data, offset);
+            if (segConv != conv) {
+                return -1;
+            }
+            int cmd = data[offset + 4] & 0xff;
+            int frg = data[offset + 5] & 0xff;
+            int wnd = readShort(data, offset + 6);
+            int ts = readInt(data, offset + 8);
+            int sn = readInt(data, offset + 12);
+            int una = readInt(data, offset + 16);
+            int len = readInt(data, offset + 20);
+            offset += OVERHEAD;
+            size -= OVERHEAD;
+
+            if (len < 0 || size < len) {
+                return -2;
+            }
+            if (cmd != CMD_PUSH && cmd != CMD_ACK && cmd != CMD_WASK && cmd != CMD_WINS) {
+                return -3;
+            }
+
+            rmtWnd = wnd;
+            parseUna(una);
+            shrinkBuf();
+
+            if (cmd == CMD_ACK) {
+                if (diff(current, ts) >= 0) {
+                    updateAck(diff(current, ts));
+                }
+                parseAck(sn);
+                shrinkBuf();
+                if (!ackSeen) {
+                    ackSeen = true;
+                    maxAck = sn;
+                    latestTs = ts;
+                } else if (diff(sn, maxAck) > 0) {
+                    maxAck = sn;
+                    latestTs = ts;
+                }
+            } else if (cmd == CMD_PUSH) {
+                if (diff(sn, rcvNxt + receiveLimit()) < 0) {
+                    ackPush(sn, ts);
+                    if (diff(sn, rcvNxt) >= 0) {
+                        Segment seg = new Segment(len);
+                        seg.conv = segConv;
+                        seg.cmd = cmd;
+                        seg.frg = frg;
+                        seg.wnd = wnd;
+                        seg.ts = ts;
+                        seg.sn = sn;
+                        seg.una = una;
+                        System.arraycopy(data, offset, seg.data, 0, len);
+                        parseData(seg);
+                    }
+                }
+            } else if (cmd == CMD_WASK) {
+                probe |= ASK_TELL;
+            }
+            // CMD_WINS carries nothing beyond the window already read
+
+            offset += len;
+            size -= len;
+        }
+
+        if (ackSeen) {
+            parseFastAck(maxAck);
+        }
+
+        // Congestion window growth
+        if (diff(sndUna, prevUna) > 0 && cwnd < rmtWnd) {
+            if (cwnd < ssthresh) {
+                cwnd++;
+                incr += mss;
+            } else {
+                if (incr < mss) {
+                    incr = mss;
+                }
+                incr += (mss * mss) / incr + (mss / 16);
+                if ((cwnd + 1) * mss <= incr) {
+                    cwnd = (incr + mss - 1) / (mss > 0 ? mss : 1);
+                }
+            }
+            if (cwnd > rmtWnd) {
+                cwnd = rmtWnd;
+                incr = rmtWnd * mss;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sends pending acks, probes and any data the windows allow. Requires a prior update().
+     */
+    void flush() {
+        if (!updated) {
+            return;
+        }
+        int wnd = windowUnused();
+        int ptr = 0;
+
+        // Acks
+        for (int i = 0; i < ackCount; i++) {
+            ptr = makeSpace(ptr, OVERHEAD);
+            ptr = encodeHeader(buffer, ptr, CMD_ACK, 0, wnd, ackList[i * 2 + 1], ackList[i * 2], rcvNxt, 0);
+        }
+        ackCount = 0;
+
+        // Probe the remote window if it is closed
+        if (rmtWnd == 0) {
+            if (probeWait == 0) {
+                probeWait = PROBE_INIT;
+                tsProbe = current + probeWait;
+            } else if (diff(current, tsProbe) >= 0) {
+                if (probeWait < PROBE_INIT) {
+                    probeWait = PROBE_INIT;
+                }
+                probeWait += probeWait / 2;
+                if (probeWait > PROBE_LIMIT) {
+                    probeWait = PROBE_LIMIT;
+                }
+                tsProbe = current + probeWait;
+                probe |= ASK_SEND;
+            }
+        } else {
+            tsProbe = 0;
+            probeWait = 0;
+        }
+        if ((probe & ASK_SEND) != 0) {
+            ptr = makeSpace(ptr, OVERHEAD);
+            ptr = encodeHeader(buffer, ptr, CMD_WASK, 0, wnd, 0, 0, rcvNxt, 0);
+        }
+        if ((probe & ASK_TELL) != 0) {
+            ptr = makeSpace(ptr, OVERHEAD);
+            ptr = encodeHeader(buffer, ptr, CMD_WINS, 0, wnd, 0, 0, rcvNxt, 0);
+        }
+        probe = 0;
+
+        // Move data from the queue into the send buffer as far as the windows allow
+        int cwndLimit = Math.min(sndWnd, rmtWnd);
+        if (!nocwnd) {
+            cwndLimit = Math.min(cwnd, cwndLimit);
+        }
+        while (diff(sndNxt, sndUna + cwndLimit) < 0 && !sndQueue.isEmpty()) {
+            Segment seg = sndQueue.poll();
+            seg.conv = conv;
+            seg.cmd = CMD_PUSH;
+            seg.wnd = wnd;
+            seg.ts = current;
+            seg.sn = sndNxt++;
+            seg.una = rcvNxt;
+            seg.resendts = current;
+            seg.rto = rxRto;
+            seg.fastack = 0;
+            seg.xmit = 0;
+            sndBuf.add(seg);
+        }
+
+        int resent = fastresend > 0 ? fastresend : Integer.MAX_VALUE;
+        int rtomin = nodelay == 0 ? (rxRto >> 3) : 0;
+        boolean lost = false;
+        int change = 0;
+
+        for (Segment seg : sndBuf) {
+            boolean needSend = false;
+            if (seg.xmit == 0) {
+                needSend = true;
+                seg.xmit++;
+                seg.rto = rxRto;
+                seg.resendts = current + seg.rto + rtomin;
+            } else if (diff(current, seg.resendts) >= 0) {
+                needSend = true;
+                seg.xmit++;
+                if (nodelay == 0) {
+                    seg.rto += Math.max(seg.rto, rxRto);
+                } else {
+                    int step = nodelay < 2 ? seg.rto : rxRto;
+                    seg.rto += step / 2;
+                }
+                seg.resendts = current + seg.rto;
+                lost = true;
+            } else if (seg.fastack >= resent) {
+                if (seg.xmit <= fastlimit || fastlimit <= 0) {
+                    needSend = true;
+                    seg.xmit++;
+                    seg.fastack = 0;
+                    seg.resendts = current + seg.rto;
+                    change++;
+                }
+            }
+
+            if (needSend) {
+                seg.ts = current;
+                seg.wnd = wnd;
+                seg.una = rcvNxt;
+                ptr = makeSpace(ptr, OVERHEAD + seg.data.length);
+                ptr = encodeHeader(buffer, ptr, CMD_PUSH, seg.frg, wnd, seg.ts, seg.sn, seg.una, seg.data.length);
+                System.arraycopy(seg.data, 0, buffer, ptr, seg.data.length);
+                ptr += seg.data.length;
+                if (seg.xmit >= deadLink) {
+                    state = -1;
+                }
+            }
+        }
+
+        if (ptr > 0) {
+            output.output(buffer, ptr);
+        }
+
+        if (change > 0) {
+            int inflight = sndNxt - sndUna;
+            ssthresh = Math.max(inflight / 2, THRESH_MIN);
+            cwnd = ssthresh + resent;
+            incr = cwnd * mss;
+        }
+        if (lost) {
+            ssthresh = Math.max(cwndLimit / 2, THRESH_MIN);
+            cwnd = 1;
+            incr = mss;
+        }
+        if (cwnd < 1) {
+            cwnd = 1;
+            incr = mss;
+        }
+    }
+
+    /**
+     * Advances the clock and flushes when the interval has elapsed. Call it periodically, or at
+     * the time returned by check().
+     */
+    void update(int now) {
+        current = now;
+        if (!updated) {
+            updated = true;
+            tsFlush = current;
+        }
+        int slap = diff(current, tsFlush);
+        if (slap >= 10000 || slap < -10000) {
+            tsFlush = current;
+            slap = 0;
+        }
+        if (slap >= 0) {
+            tsFlush += interval;
+            if (diff(current, tsFlush) >= 0) {
+                tsFlush = current + interval;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Returns when update() next needs to run.
+     */
+    int check(int now) {
+        if (!updated) {
+            return now;
+        }
+        int flushAt = tsFlush;
+        if (diff(now, flushAt) >= 10000 || diff(now, flushAt) < -10000) {
+            flushAt = now;
+        }
+        if (diff(now, flushAt) >= 0) {
+            return now;
+        }
+        int untilFlush = diff(flushAt, now);
+        int untilPacket = Integer.MAX_VALUE;
+        for (Segment seg : sndBuf) {
+            int d = diff(seg.resendts, now);
+            if (d <= 0) {
+                return now;
+            }
+            if (d < untilPacket) {
+                untilPacket = d;
+            }
+        }
+        int minimal = Math.min(untilPacket, untilFlush);
+        if (minimal >= interval) {
+            minimal = interval;
+        }
+        return now + minimal;
+    }
+
+    void setMtu(int mtu) {
+        if (mtu < 50 || mtu < OVERHEAD) {
+            throw new IllegalArgumentException("KCP MTU too small: " + mtu);
+        }
+        this.buffer = new byte[(mtu + OVERHEAD) * 3];
+        this.mtu = mtu;
+        this.mss = mtu - OVERHEAD;
+    }
+
+    void setNoDelay(int nodelay, int interval, int resend, boolean nc) {
+        this.nodelay = nodelay;
+        this.rxMinrto = nodelay != 0 ? RTO_NDL : RTO_MIN;
+        this.interval = Math.max(10, Math.min(interval, 5000));
+        this.fastresend = resend;
+        this.nocwnd = nc;
+    }
+
+    void setWindowSize(int sndWnd, int rcvWnd) {
+        if (sndWnd > 0) {
+            this.sndWnd = sndWnd;
+        }
+        if (rcvWnd > 0) {
+            this.rcvWnd = Math.max(rcvWnd, WND_RCV);
+        }
+    }
+
+    /**
+     * Caps the receive window below the configured one; raising the cap reopens it. Limits
+     * what the peer may send ahead, and so what the receive side holds.
+     */
+    void setReceiveCap(int segments) {
+        boolean recover = rcvQueue.size() >= receiveLimit();
+        this.rcvCap = Math.max(1, segments);
+        if (recover && rcvQueue.size() < receiveLimit()) {
+            probe |= ASK_TELL; // Tell the remote our window has reopened
+        }
+    }
+
+    void setStreamMode(boolean stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Makes the next flush ask the peer for its window. The peer answers with a window update,
+     * so this also works as a keepalive on a session that has nothing to send.
+     */
+    void probeWindow() {
+        probe |= ASK_SEND;
+    }
+
+    int sendWindow() {
+        return sndWnd;
+    }
+
+    /** Segments not yet acknowledged, queued or in flight. */
+    int waitSnd() {
+        return sndBuf.size() + sndQueue.size();
+    }
+
+    /** Segments received and not yet read, in order or waiting for a gap to fill. */
+    int waitRcv() {
+        return rcvBuf.size() + rcvQueue.size();
+    }
+
+    /** -1 once a segment has been retransmitted deadLink times. */
+    int state() {
+        return state;
+    }
+
+    private int makeSpace(int ptr, int needed) {
+        if (ptr + needed > mtu) {
+            output.output(buffer, ptr);
+            return 0;
+        }
+        return ptr;
+    }
+
+    private int windowUnused() {
+        int limit = receiveLimit();
+        return rcvQueue.size() < limit ? limit - rcvQueue.size() : 0;
+    }
+
+    private int receiveLimit() {
+        return Math.min(rcvWnd, rcvCap);
+    }
+
+    private void updateAck(int rtt) {
+        if (rxSrtt == 0) {
+            rxSrtt = rtt;
+            rxRttval = rtt / 2;
+        } else {
+            int delta = Math.abs(rtt - rxSrtt);
+            rxRttval = (3 * rxRttval + delta) / 4;
+            rxSrtt = Math.max(1, (7 * rxSrtt + rtt) / 8);
+        }
+        int rto = rxSrtt + Math.max(interval, 4 * rxRttval);
+        rxRto = Math.max(rxMinrto, Math.min(rto, RTO_MAX));
+    }
+
+    private void shrinkBuf() {
+        sndUna = sndBuf.isEmpty() ? sndNxt : sndBuf.getFirst().sn;
+    }
+
+    private void parseAck(int sn) {
+        if (diff(sn, sndUna) < 0 || diff(sn, sndNxt) >= 0) {
+            return;
+        }
+        Iterator<Segment> it = sndBuf.iterator();
+        while (it.hasNext()) {
+            Segment seg = it.next();
+            if (sn == seg.sn) {
+                it.remove();
+                break;
+            }
+            if (diff(sn, seg.sn) < 0) {
+                break;
+            }
+        }
+    }
+
+    private void parseUna(int una) {
+        while (!sndBuf.isEmpty() && diff(una, sndBuf.getFirst().sn) > 0) {
+            sndBuf.removeFirst();
+        }
+    }
+
+    private void parseFastAck(int sn) {
+        if (diff(sn, sndUna) < 0 || diff(sn, sndNxt) >= 0) {
+            return;
+        }
+        for (Segment seg : sndBuf) {
+            if (diff(sn, seg.sn) < 0) {
+                break;
+            } else if (sn != seg.sn) {
+                seg.fastack++;
+            }
+        }
+    }
+
+    private void ackPush(int sn, int ts) {
+        if (ackCount * 2 + 2 > ackList.length) {
+            int[] grown = new int[ackList.length * 2];
+            System.arraycopy(ackList, 0, grown, 0, ackList.length);
+            ackList = grown;
+        }
+        ackList[ackCount * 2] = sn;
+        ackList[ackCount * 2 + 1] = ts;
+        ackCount++;
+    }
+
+    private void parseData(Segment newSeg) {
+        int sn = newSeg.sn;
+        if (diff(sn, rcvNxt + receiveLimit()) >= 0 || diff(sn, rcvNxt) < 0) {
+            return;
+        }
+        // Insert in order, searching from the back where new segments usually land
+        ListIterator<Segment> it = rcvBuf.listIterator(rcvBuf.size());
+        boolean repeat = false;
+        while (it.hasPrevious()) {
+            Segment seg = it.previous();
+            if (seg.sn == sn) {
+                repeat = true;
+                break;
+            }
+            if (diff(sn, seg.sn) > 0) {
+                it.next();
+                break;
+            }
+        }
+        if (!repeat) {
+            it.add(newSeg);
+        }
+        moveReceived();
+    }
+
+    private void moveReceived() {
+        while (!rcvBuf.isEmpty()) {
+            Segment seg = rcvBuf.getFirst();
+            if (seg.sn == rcvNxt && rcvQueue.size() < receiveLimit()) {
+                rcvBuf.removeFirst();
+                rcvQueue.add(seg);
+                rcvNxt++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private int encodeHeader(byte[] buf, int ptr, int cmd, int frg, int wnd, int ts, int sn, int una, int len) {
+        writeInt(buf, ptr, conv);
+        buf[ptr + 4] = (byte) cmd;
+        buf[ptr + 5] = (byte) frg;
+        buf[ptr + 6] = (byte) wnd;
+        buf[ptr + 7] = (byte) (wnd >>> 8);
+        writeInt(buf, ptr + 8, ts);
+        writeInt(buf, ptr + 12, sn);
+        writeInt(buf, ptr + 16, una);
+        writeInt(buf, ptr + 20, len);
+        return ptr + OVERHEAD;
+    }
+
+    private static int diff(int later, int earlier) {
+        return later - earlier;
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xff)
+                | (buf[offset + 1] & 0xff) << 8
+                | (buf[offset + 2] & 0xff) << 16
+                | (buf[offset + 3] & 0xff) << 24;
+    }
+
+    private static int readShort(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8;
+    }
+}
@@ -0,0 +1,135 @@
+package com.promedia.frcclient;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop shared by the KCP sessions of every client: one thread receives datagrams for all
+ * sessions through a Selector and runs each session's KCP clock. It sleeps without a timeout
+ * while no session is open.
+ */
+final class KcpDriver {
+
+    private static final String TAG = "FRPClient_KcpDriver";
+    private static final int MAX_SELECT_WAIT_MS = 100;
+    private static final int MAX_DATAGRAM = 64 * 1024;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<KcpTransport.KcpConn> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean shutdown = false;
+
+    KcpDriver() throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::drive, "FRPClient-KCP");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void register(KcpTransport.KcpConn conn) throws IOException {
+        if (shutdown) {
+            throw new IOException("KCP driver stopped.");
+        }
+        pending.add(conn);
+        selector.wakeup();
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the loop and fails every open session.
+     */
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    static int now() {
+        return (int) (System.nanoTime() / 1000000L);
+    }
+
+    private void drive() {
+        List<KcpTransport.KcpConn> conns = new ArrayList<>();
+        ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+        try {
+            while (!shutdown) {
+                KcpTransport.KcpConn added;
+                while ((added = pending.poll()) != null) {
+                    try {
+                        added.channel.register(selector, SelectionKey.OP_READ, added);
+                        conns.add(added);
+                    } catch (IOException e) {
+                        added.fail();
+                    }
+                }
+
+                int now = now();
+                int waitMs = MAX_SELECT_WAIT_MS;
+                Iterator<KcpTransport.KcpConn> it = conns.iterator();
+                while (it.hasNext()) {
+                    KcpTransport.KcpConn conn = it.next();
+                    if (conn.isFinished()) {
+                        it.remove();
+                        continue;
+                    }
+                    if (now - conn.nextUpdate >= 0) {
+                        conn.nextUpdate = conn.update(now);
+                    }
+                    waitMs = Math.min(waitMs, conn.nextUpdate - now);
+                }
+
+                if (conns.isEmpty()) {
+                    selector.select(); // Idle until a session is registered
+                } else {
+                    selector.select(Math.max(1, waitMs));
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    KcpTransport.KcpConn conn = (KcpTransport.KcpConn) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        while (true) {
+                            receiveBuffer.clear();
+                            int read = conn.channel.read(receiveBuffer);
+                            if (read <= 0) {
+                                break;
+                            }
+                            conn.input(receiveBuffer.array(), read);
+                        }
+                    } catch (IOException e) {
+                        // ICMP port unreachable and similar; KCP retransmits or hits its dead-link limit
+                        Log.d(TAG, "KCP receive error: " + e.getMessage());
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "KCP driver stopped: " + e.getMessage());
+        } finally {
+            shutdown = true;
+            for (KcpTransport.KcpConn conn : conns) {
+                conn.fail();
+            }
+            KcpTransport.KcpConn left;
+            while ((left = pending.poll()) != null) {
+                left.fail();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do here
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.promedia.frcclient;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * KCP (reliable UDP) connections to the server, selected with {@code protocol = kcp}.
+ *
+ * Every dial opens its own connected DatagramChannel with a random conversation id, matching
+ * how frps accepts KCP sessions. Sessions are driven by the shared {@link KcpDriver}.
+ * Application threads see plain blocking streams; a write blocks once the session's send queue
+ * reaches twice the send window and resumes when it has drained back to one window.
+ *
+ * KCP has no FIN, so a peer that goes away while nothing is being sent is only noticed by its
+ * silence: a session that receives nothing for Options.idleTimeoutMs fails, which ends blocked
+ * reads and writes. Idle is not silent, though: a session that has heard nothing for
+ * Options.keepaliveMs probes the peer's window, and a live peer answers. So an idle SSH session
+ * relayed over KCP stays up, and only a peer that is gone runs into the timeout.
+ *
+ * Each session charges its queues to the relay MemoryBudget at their high-water mark, in steps
+ * of CHARGE_STEP_SEGMENTS: the receive window only opens as far as the budget allows, and a
+ * write waits while the send queue cannot be charged. The charge is returned when the session ends.
+ */
+class KcpTransport implements ServerTransport {
+
+    private static final String TAG = "FRPClient_Kcp";
+    private static final int CLOSE_LINGER_MS = 5000; // How long close() keeps retransmitting unacked data
+    private static final int CHARGE_STEP_SEGMENTS = 32;
+    private static final int CHARGE_RETRY_MS = 100; // A write short of budget retries this often
+
+    /**
+     * Tunables read from [common]. Defaults match frpc's KCP settings.
+     */
+    static final class Options {
+        int nodelay = 1;                     // kcp_nodelay
+        int interval = 20;                   // kcp_interval, ms
+        int resend = 2;                      // kcp_resend, fast retransmit after this many skipped acks
+        boolean noCongestionWindow = true;   // kcp_nc
+        int sendWindow = 128;                // kcp_snd_wnd, segments
+        int receiveWindow = 512;             // kcp_rcv_wnd, segments
+        int mtu = 1350;                      // kcp_mtu, bytes
+        double lossRate = 0;                 // Drops this fraction of datagrams each way; for loss testing only
+        int idleTimeoutMs = 120000;          // Fail a session that receives nothing for this long; 0 never does
+        int keepaliveMs = 10000;             // Probe a session that has received nothing for this long; 0 never does
+
+        static Options fromConfig(Map<String, String> common) throws NumberFormatException {
+            Options options = new Options();
+            options.nodelay = intValue(common, "kcp_nodelay", options.nodelay);
+            options.interval = intValue(common, "kcp_interval", options.interval);
+            options.resend = intValue(common, "kcp_resend", options.resend);
+            options.noCongestionWindow = intValue(common, "kcp_nc", options.noCongestionWindow ? 1 : 0) != 0;
+            options.sendWindow = intValue(common, "kcp_snd_wnd", options.sendWindow);
+            options.receiveWindow = intValue(common, "kcp_rcv_wnd", options.receiveWindow);
+            options.mtu = intValue(common, "kcp_mtu", options.mtu);
+            if (options.mtu < 50 || options.mtu > 1500) {
+                throw new NumberFormatException("kcp_mtu out of range: " + options.mtu);
+            }
+            return options;
+        }
+
+        private static int intValue(Map<String, String> section, String key, int defaultValue) {
+            String value = section.get(key);
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        }
+    }
+
+    private final NetworkSelector.Handle network; // null means the system default network
+    private final Options options;
+    private final KcpDriver driver;
+    private final DnsCache dnsCache;
+    private final MemoryBudget budget; // Relay memory shared with TCP work connections and visitors
+    private final Random random = new Random();
+    private volatile boolean closed = false;
+
+    KcpTransport(NetworkSelector.Handle network, Options options, KcpDriver driver, DnsCache dnsCache,
+                 MemoryBudget budget) {
+        this.network = network;
+        this.options = options;
+        this.driver = driver;
+        this.dnsCache = dnsCache;
+        this.budget = budget;
+    }
+
+    @Override
+    public TunnelConn dial(String host, int port, int timeoutMs) throws IOException {
+        if (closed) {
+            throw new IOException("KCP transport closed.");
+        }
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (network != null) {
+                network.bindDatagramSocket(channel.socket());
+            }
+            channel.connect(new InetSocketAddress(dnsCache.resolve(network, host), port));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            dnsCache.invalidate(network, host);
+            throw e;
+        }
+
+        int conv;
+        synchronized (random) {
+            do {
+                conv = random.nextInt();
+            } while (conv == 0);
+        }
+        // UDP has no handshake; the session is usable as soon as the driver picks it up
+        KcpConn conn = new KcpConn(conv, channel);
+        if (!conn.chargeReceiveWindow()) {
+            channel.close();
+            throw new IOException("Relay memory budget exhausted.");
+        }
+        try {
+            driver.register(conn);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    /**
+     * Rejects new dials. Existing sessions keep relaying until they finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private boolean shouldDrop() {
+        if (options.lossRate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < options.lossRate;
+        }
+    }
+
+    final class KcpConn implements TunnelConn, Kcp.Output {
+        final DatagramChannel channel;
+        final Object lock = new Object();
+        final Kcp kcp;
+        final int maxWrite;
+        final int mss;
+        final ByteBuffer sendBuffer;
+        int nextUpdate; // Driver thread only
+        private byte[] recvBuffer;
+        private int recvPos = 0;
+        private int recvLen = 0;
+        private boolean closed = false;   // No more application reads or writes
+        private boolean finished = false; // Channel closed; the driver drops the session
+        private int lingerUntil;
+        private int readTimeoutMs = 0;
+        private int lastInput;          // KcpDriver.now() of the last datagram from the peer
+        private int lastProbe;          // KcpDriver.now() of the last keepalive probe
+        private String failure = null;  // Why the session died, null after a normal close
+        private int sendCharged = 0;    // Send queue segments charged to the budget
+        private int receiveCharged = 0; // Receive window segments charged to the budget
+
+        private final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return KcpConn.this.read(b, off, len);
+            }
+        };
+
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                KcpConn.this.write(b, off, len);
+            }
+        };
+
+        KcpConn(int conv, DatagramChannel channel) {
+            this.channel = channel;
+            this.kcp = new Kcp(conv, this);
+            kcp.setMtu(options.mtu);
+            kcp.setNoDelay(options.nodelay, options.interval, options.resend, options.noCongestionWindow);
+            kcp.setWindowSize(options.sendWindow, options.receiveWindow);
+            kcp.setStreamMode(true);
+            kcp.update(KcpDriver.now());
+            this.nextUpdate = KcpDriver.now();
+            // Stay well under the 128-fragment limit of a single send
+            this.mss = options.mtu - Kcp.OVERHEAD;
+            this.maxWrite = mss * 64;
+            this.sendBuffer = ByteBuffer.allocateDirect(options.mtu * 3 + Kcp.OVERHEAD * 3);
+            this.recvBuffer = new byte[options.mtu];
+            this.lastInput = nextUpdate;
+            this.lastProbe = nextUpdate;
+        }
+
+        @Override
+        public void output(byte[] data, int length) {
+            // Called with lock held
+            if (shouldDrop()) {
+                return;
+            }
+            sendBuffer.clear();
+            sendBuffer.put(data, 0, length);
+            sendBuffer.flip();
+            try {
+                channel.write(sendBuffer);
+            } catch (IOException e) {
+                // Treated as loss; KCP retransmits
+                Log.d(TAG, "KCP send error: " + e.getMessage());
+            }
+        }
+
+        void input(byte[] data, int length) {
+            if (shouldDrop()) {
+                return;
+            }
+            synchronized (lock) {
+                lastInput = KcpDriver.now();
+                kcp.input(data, 0, length);
+                if (kcp.waitRcv() + CHARGE_STEP_SEGMENTS / 2 >= receiveCharged) {
+                    chargeReceiveWindow(); // Running low; without budget the window stays as it is
+                }
+                lock.notifyAll(); // Wake readers (new data) and writers (acks freed the window)
+            }
+        }
+
+        int update(int now) {
+            synchronized (lock) {
+                if (finished) {
+                    return now;
+                }
+                kcp.update(now);
+                if (kcp.state() < 0) {
+                    fail("KCP session dead: retransmission limit reached.");
+                } else if (options.idleTimeoutMs > 0 && now - lastInput >= options.idleTimeoutMs) {
+                    fail("KCP session dead: nothing received for " + options.idleTimeoutMs + " ms.");
+                } else if (closed && (kcp.waitSnd() == 0 || now - lingerUntil >= 0)) {
+                    finish();
+                } else if (options.keepaliveMs > 0 && now - lastInput >= options.keepaliveMs
+                        && now - lastProbe >= options.keepaliveMs) {
+                    // Quiet for a while: the peer's answer to the probe shows it is still there
+                    lastProbe = now;
+                    kcp.probeWindow();
+                    kcp.flush();
+                }
+                lock.notifyAll();
+                return kcp.check(now);
+            }
+        }
+
+        int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (lock) {
+                long deadline = readTimeoutMs > 0 ? System.currentTimeMillis() + readTimeoutMs : 0;
+                while (recvPos >= recvLen) {
+                    int peek = kcp.peekSize();
+                    if (peek > 0) {
+                        if (peek > recvBuffer.length) {
+                            recvBuffer = new byte[peek];
+                        }
+                        recvLen = kcp.recv(recvBuffer, 0, recvBuffer.length);
+                        recvPos = 0;
+                        break;
+                    }
+                    if (closed) {
+                        if (failure != null) {
+                            throw new IOException(failure);
+                        }
+                        return -1;
+                    }
+                    try {
+                        if (deadline > 0) {
+                            long remaining = deadline - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                throw new SocketTimeoutException("KCP read timed out");
+                            }
+                            lock.wait(remaining);
+                        } else {
+                            lock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("KCP read interrupted");
+                    }
+                }
+                int count = Math.min(len, recvLen - recvPos);
+                System.arraycopy(recvBuffer, recvPos, b, off, count);
+                recvPos += count;
+                return count;
+            }
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            synchronized (lock) {
+                while (len > 0) {
+                    // Backpressure: above the high-water mark stop accepting data, which in turn stops
+                    // the relay reading from its source, and resume only once acks bring the queue
+                    // down to the low-water mark
+                    if (kcp.waitSnd() >= kcp.sendWindow() * 2) {
+                        while (!closed && kcp.waitSnd() > kcp.sendWindow()) {
+                            try {
+                                lock.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("KCP write interrupted");
+                            }
+                        }
+                    }
+                    if (closed) {
+                        throw new IOException(failure != null ? failure : "KCP session closed");
+                    }
+                    int chunk = Math.min(len, maxWrite);
+                    chargeSend(kcp.waitSnd() + (chunk + mss - 1) / mss);
+                    int room = (sendCharged - kcp.waitSnd()) * mss;
+                    if (room <= 0) {
+                        waitFor(CHARGE_RETRY_MS); // Acks or other sessions' releases may free enough
+                        continue;
+                    }
+                    chunk = Math.min(chunk, room);
+                    if (kcp.send(b, off, chunk) < 0) {
+                        throw new IOException("KCP send rejected " + chunk + " bytes");
+                    }
+                    off += chunk;
+                    len -= chunk;
+                }
+                // Push immediately rather than waiting for the next interval
+                kcp.flush();
+            }
+        }
+
+        /**
+         * Opens the receive window by one more step, if the budget allows. Called with lock held
+         * or before the session is registered.
+         */
+        boolean chargeReceiveWindow() {
+            if (finished || receiveCharged >= options.receiveWindow) {
+                return false;
+            }
+            int step = Math.min(CHARGE_STEP_SEGMENTS, options.receiveWindow - receiveCharged);
+            if (!budget.tryGrow(step * options.mtu)) {
+                return false;
+            }
+            receiveCharged += step;
+            kcp.setReceiveCap(receiveCharged);
+            return true;
+        }
+
+        /**
+         * Grows the send charge towards the given queue length, as far as the budget allows.
+         */
+        private void chargeSend(int segments) {
+            // Called with lock held
+            while (sendCharged < segments && budget.tryGrow(CHARGE_STEP_SEGMENTS * options.mtu)) {
+                sendCharged += CHARGE_STEP_SEGMENTS;
+            }
+        }
+
+        private void waitFor(int timeoutMs) throws InterruptedIOException {
+            // Called with lock held
+            try {
+                lock.wait(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("KCP write interrupted");
+            }
+        }
+
+        void fail() {
+            synchronized (lock) {
+                finish();
+            }
+        }
+
+        private void fail(String reason) {
+            // Called with lock held
+            Log.d(TAG, reason);
+            failure = reason;
+            finish();
+        }
+
+        private void finish() {
+            // Called with lock held
+            closed = true;
+            finished = true;
+            budget.release((long) (sendCharged + receiveCharged) * options.mtu);
+            sendCharged = 0;
+            receiveCharged = 0;
+            lock.notifyAll();
+            closeChannel();
+        }
+
+        boolean isFinished() {
+            synchronized (lock) {
+                return finished;
+            }
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do here
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public WritableByteChannel writableChannel() {
+            return Channels.newChannel(out);
+        }
+
+        @Override
+        public void setReadTimeout(int timeoutMs) {
+            synchronized (lock) {
+                readTimeoutMs = timeoutMs;
+            }
+        }
+
+        @Override
+        public void applyProfile(TransportProfile profile) {
+            // Socket options do not apply; KCP tuning comes from [common]
+        }
+
+        @Override
+        public boolean isClosed() {
+            synchronized (lock) {
+                return closed;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                // Keep the session alive until queued data is acknowledged or the linger expires
+                closed = true;
+                lingerUntil = KcpDriver.now() + CLOSE_LINGER_MS;
+                lock.notifyAll();
+            }
+            driver.wakeup();
+        }
+    }
+}
@@ -1,13 +1,13 @@
 // app/src/main/java/com/promedia/frcclient/MainActivity.java
 package com.promedia.frcclient;
 
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
+import android.content.ServiceConnection;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.text.InputType;
 import android.util.Log;
 import android.view.Gravity;
@@ -19,15 +19,15 @@ import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "FRPClient_MainActivity";
-    private static final String PREFS_NAME = "FRPClientPrefs";
-    private static final String KEY_CONFIG = "frp_config";
-    private static final String KEY_AUTO_START = "frp_auto_start";
 
+    private ProfileStore profileStore;
+    private String currentProfile = ProfileStore.DEFAULT_PROFILE; // Profile shown and controlled by this screen
+    private EditText profileEditText;
+    private Button loadProfileButton;
     private EditText configEditText;
     private Button toggleServiceButton;
     private Button autoStartToggleButton;
@@ -38,62 +38,77 @@ public class MainActivity extends AppCompatActivity {
     private boolean isServiceRunning = false;
     private boolean isAutoStartEnabled = false;
 
-    // Receiver for status updates and logs from FRPService
-    private BroadcastReceiver serviceUpdateReceiver = new BroadcastReceiver() {
+    private FRPService service; // Set while bound
+
+    // Typed state and log stream from FRPService, delivered on the main thread
+    private final FRPService.ServiceListener serviceListener = new FRPService.ServiceListener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent != null) {
-                String status = intent.getStringExtra("status");
-                String logMessage = intent.getStringExtra("log");
-
-                if (status != null) {
-                    statusTextView.setText("Status: " + status);
-                    Log.d(TAG, "Received status: " + status);
-                    if (status.contains("Running")) {
-                        isServiceRunning = true;
-                        toggleServiceButton.setText("Stop FRP Service");
-                        toggleServiceButton.setBackgroundColor(Color.parseColor("#FF4CAF50")); // Green
-                    } else {
-                        isServiceRunning = false;
-                        toggleServiceButton.setText("Start FRP Service");
-                        toggleServiceButton.setBackgroundColor(Color.parseColor("#FF2196F3")); // Blue
-                    }
-                }
-                if (logMessage != null) {
-                    logTextView.append(logMessage + "\n");
-                    Log.d(TAG, "Received log: " + logMessage);
-                    // Scroll to the bottom
-                    logScrollView.post(() -> logScrollView.fullScroll(View.FOCUS_DOWN));
-                }
+        public void onStateChanged(StateEvent event) {
+            // Other profiles' state does not change this screen's button
+            if (event.profile.equals(currentProfile)) {
+                Log.d(TAG, "State: " + event);
+                showState(event.state, event.detail);
             }
         }
+
+        @Override
+        public void onLog(long seq, String profile, String message) {
+            logTextView.append((profile != null ? "[" + profile + "] " : "") + message + "\n");
+            // Scroll to the bottom
+            logScrollView.post(() -> logScrollView.fullScroll(View.FOCUS_DOWN));
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((FRPService.LocalBinder) binder).getService();
+            showState(service.getState(currentProfile), "");
+            service.addListener(serviceListener);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
     };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        profileStore = new ProfileStore(this);
         setupUI();
         loadConfiguration();
         updateAutoStartButton();
-
-        // Register receiver for service updates
-        LocalBroadcastManager.getInstance(this).registerReceiver(
-                serviceUpdateReceiver, new IntentFilter(FRPService.ACTION_SERVICE_STATUS_UPDATE));
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        // Request current service status when activity resumes
-        Intent intent = new Intent(this, FRPService.class);
-        intent.setAction(FRPService.ACTION_REQUEST_STATUS);
-        startService(intent); // Start service if not running, or just send intent if it is
+    protected void onStart() {
+        super.onStart();
+        // Binding does not start any profile; the service only runs in the foreground once one is started
+        bindService(new Intent(this, FRPService.class), serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(serviceUpdateReceiver);
+    protected void onStop() {
+        super.onStop();
+        if (service != null) {
+            service.removeListener(serviceListener);
+            service = null;
+        }
+        unbindService(serviceConnection);
+    }
+
+    private void showState(ProfileState state, String detail) {
+        statusTextView.setText("Status: " + state + (detail.isEmpty() ? "" : " - " + detail));
+        isServiceRunning = state.isRunning();
+        if (isServiceRunning) {
+            toggleServiceButton.setText("Stop FRP Service");
+            toggleServiceButton.setBackgroundColor(Color.parseColor("#FF4CAF50")); // Green
+        } else {
+            toggleServiceButton.setText("Start FRP Service");
+            toggleServiceButton.setBackgroundColor(Color.parseColor("#FF2196F3")); // Blue
+        }
     }
 
     private void setupUI() {
@@ -116,6 +131,23 @@ public class MainActivity extends AppCompatActivity {
         titleTextView.setPadding(0, 16, 0, 16);
         mainLayout.addView(titleTextView);
 
+        // Profile name row: several profiles can run at once, this screen edits one of them
+        LinearLayout profileRow = new LinearLayout(this);
+        profileRow.setOrientation(LinearLayout.HORIZONTAL);
+        profileEditText = new EditText(this);
+        profileEditText.setHint("Profile name");
+        profileEditText.setSingleLine(true);
+        profileEditText.setBackgroundColor(Color.WHITE);
+        profileEditText.setPadding(16, 16, 16, 16);
+        profileEditText.setTextColor(Color.BLACK);
+        profileEditText.setHintTextColor(Color.GRAY);
+        profileRow.addView(profileEditText, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1.0f));
+        loadProfileButton = new Button(this);
+        loadProfileButton.setText("Load");
+        profileRow.addView(loadProfileButton, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        mainLayout.addView(profileRow, layoutParams);
+
         // Configuration EditText
         configEditText = new EditText(this);
         configEditText.setLayoutParams(new LinearLayout.LayoutParams(
@@ -177,7 +209,26 @@ public class MainActivity extends AppCompatActivity {
         setContentView(mainLayout);
 
         // Button Listeners
+        loadProfileButton.setOnClickListener(v -> {
+            String profile = profileEditText.getText().toString().trim();
+            if (!ProfileStore.isValidName(profile)) {
+                logTextView.append("Error: Profile names use letters, digits, '_' and '-' (at most 32).\n");
+                return;
+            }
+            switchProfile(profile);
+        });
+
         toggleServiceButton.setOnClickListener(v -> {
+            String profile = profileEditText.getText().toString().trim();
+            if (!profile.equals(currentProfile)) {
+                if (!ProfileStore.isValidName(profile)) {
+                    logTextView.append("Error: Profile names use letters, digits, '_' and '-' (at most 32).\n");
+                    return;
+                }
+                // Typed a new name without loading: the text below becomes that profile's config
+                currentProfile = profile;
+                isServiceRunning = false;
+            }
             String config = configEditText.getText().toString();
             saveConfiguration(config); // Save config always when toggling
 
@@ -190,26 +241,30 @@ public class MainActivity extends AppCompatActivity {
 
         autoStartToggleButton.setOnClickListener(v -> {
             isAutoStartEnabled = !isAutoStartEnabled;
-            SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit();
-            editor.putBoolean(KEY_AUTO_START, isAutoStartEnabled);
-            editor.apply();
+            profileStore.setAutoStartEnabled(isAutoStartEnabled);
             updateAutoStartButton();
             logTextView.append("Auto-start " + (isAutoStartEnabled ? "enabled" : "disabled") + "\n");
         });
     }
 
     private void loadConfiguration() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String savedConfig = prefs.getString(KEY_CONFIG, "");
-        isAutoStartEnabled = prefs.getBoolean(KEY_AUTO_START, false);
-        configEditText.setText(savedConfig);
+        currentProfile = profileStore.lastProfile();
+        isAutoStartEnabled = profileStore.isAutoStartEnabled();
+        profileEditText.setText(currentProfile);
+        configEditText.setText(profileStore.loadConfig(currentProfile));
+        logTextView.append("Saved profiles: " + profileStore.names() + "\n");
+    }
+
+    private void switchProfile(String profile) {
+        currentProfile = profile;
+        configEditText.setText(profileStore.loadConfig(profile));
+        showState(service != null ? service.getState(profile) : ProfileState.IDLE, "");
+        logTextView.append("Loaded profile " + profile + ".\n");
     }
 
     private void saveConfiguration(String config) {
-        SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit();
-        editor.putString(KEY_CONFIG, config);
-        editor.apply();
-        logTextView.append("Configuration saved.\n");
+        profileStore.saveConfig(currentProfile, config);
+        logTextView.append("Configuration saved for profile " + currentProfile + ".\n");
     }
 
     private void updateAutoStartButton() {
@@ -232,6 +287,7 @@ public class MainActivity extends AppCompatActivity {
         Intent serviceIntent = new Intent(this, FRPService.class);
         serviceIntent.setAction(FRPService.ACTION_START_FRP);
         serviceIntent.putExtra("config", config);
+        serviceIntent.putExtra(FRPService.EXTRA_PROFILE, currentProfile);
         // For Android O (API 26) and above, use startForegroundService
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
             startForegroundService(serviceIntent);
@@ -245,6 +301,7 @@ public class MainActivity extends AppCompatActivity {
     private void stopFRPService() {
         Intent serviceIntent = new Intent(this, FRPService.class);
         serviceIntent.setAction(FRPService.ACTION_STOP_FRP);
+        serviceIntent.putExtra(FRPService.EXTRA_PROFILE, currentProfile);
         startService(serviceIntent);
         statusTextView.setText("Status: Stopping FRP Service...");
         logTextView.append("Attempting to stop FRP Service...\n");
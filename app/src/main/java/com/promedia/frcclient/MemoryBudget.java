@@ -0,0 +1,73 @@
+package com.promedia.frcclient;
+
+/**
+ * Process-wide cap on relay buffer memory, shared by every work connection of every session.
+ *
+ * Connections reserve their initial window on admission and charge any buffer growth later on.
+ * KCP sessions also charge their send and receive queues here as they grow.
+ * Admission has hysteresis: once usage reaches the high-water mark new connections are refused
+ * until usage drops below the low-water mark, so the budget does not flap at the boundary.
+ * Growth of existing connections is only limited by the hard limit.
+ */
+final class MemoryBudget {
+
+    private static final int HIGH_WATER_PERCENT = 90;
+    private static final int LOW_WATER_PERCENT = 70;
+
+    private final long limitBytes;
+    private final long highWaterBytes;
+    private final long lowWaterBytes;
+    private long usedBytes = 0;
+    private boolean admitting = true;
+
+    MemoryBudget(long limitBytes) {
+        this.limitBytes = limitBytes;
+        this.highWaterBytes = limitBytes * HIGH_WATER_PERCENT / 100;
+        this.lowWaterBytes = limitBytes * LOW_WATER_PERCENT / 100;
+    }
+
+    /**
+     * Budget for a process with the given maximum heap: a quarter of it, at most 64 MiB.
+     */
+    static MemoryBudget forHeap(long maxHeapBytes) {
+        return new MemoryBudget(Math.min(64L * 1024 * 1024, maxHeapBytes / 4));
+    }
+
+    /**
+     * Reserves the initial window of a new connection. Returns false if the connection must be refused.
+     */
+    synchronized boolean tryAdmit(int bytes) {
+        if (!admitting || usedBytes + bytes > highWaterBytes) {
+            admitting = false;
+            return false;
+        }
+        usedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Reserves extra buffer space for an admitted connection. Returns false if it would exceed the limit.
+     */
+    synchronized boolean tryGrow(int bytes) {
+        if (usedBytes + bytes > limitBytes) {
+            return false;
+        }
+        usedBytes += bytes;
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        usedBytes -= bytes;
+        if (!admitting && usedBytes <= lowWaterBytes) {
+            admitting = true;
+        }
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    long limitBytes() {
+        return limitBytes;
+    }
+}
@@ -0,0 +1,91 @@
+package com.promedia.frcclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ranks the available networks and decides which one FRP connections should use.
+ *
+ * Scores rank validation state first, then transport (ethernet, Wi-Fi, cellular); 0 means
+ * unusable. Every score change, including one of the current network, triggers a new choice.
+ * So a current network that loses validation is replaced as soon as another one beats it. The
+ * current network is only replaced by a strictly better one, so networks of equal rank do not
+ * cause handover flapping. Free of Android types so the order can be unit tested; not thread-safe.
+ */
+final class NetworkRanking<H> {
+
+    static final int TRANSPORT_OTHER = 0;
+    static final int TRANSPORT_CELLULAR = 1;
+    static final int TRANSPORT_WIFI = 2;
+    static final int TRANSPORT_ETHERNET = 3;
+
+    private static final int VALIDATED_BONUS = 10; // Above any transport rank
+
+    // Insertion order breaks ties between networks of equal rank when nothing is selected yet
+    private final Map<H, Integer> scores = new LinkedHashMap<>();
+    private H current;
+
+    /**
+     * Scores a network: a validated network always beats one that has not passed the
+     * connectivity check. Networks of other transports are not used.
+     */
+    static int score(int transport, boolean validated) {
+        if (transport == TRANSPORT_OTHER) {
+            return 0;
+        }
+        return validated ? transport + VALIDATED_BONUS : transport;
+    }
+
+    /**
+     * Records the score of a new or changed network. Returns the network that replaced the
+     * current choice, or null if the choice stands.
+     */
+    H update(H network, int score) {
+        scores.put(network, score);
+        return select();
+    }
+
+    /**
+     * Forgets a network. Returns true if it was the current choice, which is then cleared;
+     * select() picks its replacement.
+     */
+    boolean remove(H network) {
+        scores.remove(network);
+        if (network.equals(current)) {
+            current = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Picks the best usable network. Returns it if it replaced the current choice, else null.
+     */
+    H select() {
+        H best = null;
+        int bestScore = 0;
+        for (Map.Entry<H, Integer> entry : scores.entrySet()) {
+            if (entry.getValue() > bestScore) {
+                best = entry.getKey();
+                bestScore = entry.getValue();
+            }
+        }
+        if (best == null || best.equals(current)) {
+            return null;
+        }
+        if (current != null && bestScore <= scores.get(current)) {
+            return null;
+        }
+        current = best;
+        return best;
+    }
+
+    H current() {
+        return current;
+    }
+
+    void clear() {
+        scores.clear();
+        current = null;
+    }
+}
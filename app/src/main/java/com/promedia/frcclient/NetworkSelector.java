@@ -0,0 +1,48 @@
+package com.promedia.frcclient;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * Chooses the network that FRP connections should use and reports when that choice changes.
+ *
+ * FRPService only talks to this interface, so a fake implementation can drive handovers
+ * (new preferred network, loss of the current one) without a real ConnectivityManager.
+ */
+interface NetworkSelector {
+
+    /**
+     * A network that sockets can be bound to.
+     */
+    interface Handle {
+        /** Short human-readable description used in logs, e.g. "wifi#101". */
+        String id();
+
+        /** Binds the socket to this network. Must be called before connect(). */
+        void bindSocket(Socket socket) throws IOException;
+
+        /** Binds a UDP socket, as used by the KCP transport, to this network. */
+        void bindDatagramSocket(DatagramSocket socket) throws IOException;
+
+        /** Resolves the host using this network's DNS servers. */
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    interface Callback {
+        /** A better network than the current one (or the first usable one) is available. */
+        void onNetworkSelected(Handle network);
+
+        /** The network is gone; connections bound to it are dead. */
+        void onNetworkLost(Handle network);
+    }
+
+    void start(Callback callback);
+
+    void stop();
+
+    /** Returns the currently preferred network, or null if none is usable. */
+    Handle current();
+}
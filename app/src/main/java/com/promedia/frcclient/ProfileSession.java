@@ -0,0 +1,402 @@
+package com.promedia.frcclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One named profile of FRPService: the active client, a standby client during handover and the
+ * retry logic. Fields are touched on the main thread only; the config is parsed on an I/O thread.
+ *
+ * The service is reached through Host, so tests can run a session with a fake NetworkSelector
+ * and a plain executor as the main thread.
+ */
+final class ProfileSession {
+
+    private static final String TAG = "FRPClient_ProfileSession";
+    private static final int RECONNECT_DELAY_SECONDS = 5;
+    private static final long EVENT_LOG_WAIT_MS = 2000; // Connect anyway if the log is slower than this
+
+    /**
+     * What a session needs from the service. Called on the main thread.
+     */
+    interface Host {
+        void log(String profile, String message);
+
+        /** The session's state changed; currentEvent() describes it. */
+        void onStateChanged(ProfileSession session);
+
+        /** The session's notification text changed. */
+        void onNotificationChanged(ProfileSession session);
+
+        boolean isNetworkAvailable();
+
+        /** Next sequence number shared by state and log events. */
+        long nextSeq();
+    }
+
+    final String name;
+    final String config;
+    private final ClientRuntime runtime;
+    private final NetworkSelector networkSelector;
+    private final Executor mainThread;
+    private final Host host;
+    private FRPClient frpClient;
+    private FRPClient standbyClient; // Session being brought up on a better network
+    private ClientConfig snapshot; // Parsed once, shared by the active and standby clients
+    private ScheduledFuture<?> reconnectTask;
+    private ProfileState state = ProfileState.IDLE;
+    private ProfileState previousState = ProfileState.IDLE;
+    private String stateDetail = "";
+    private long stateSeq = 0;
+    private long stateTime = SystemClock.elapsedRealtime();
+    private boolean stopped = false;
+    private String notificationText = "Connecting...";
+
+    ProfileSession(String name, String config, ClientRuntime runtime, NetworkSelector networkSelector,
+                   Executor mainThread, Host host) {
+        this.name = name;
+        this.config = config;
+        this.runtime = runtime;
+        this.networkSelector = networkSelector;
+        this.mainThread = mainThread;
+        this.host = host;
+    }
+
+    ProfileState state() {
+        return state;
+    }
+
+    String notificationText() {
+        return notificationText;
+    }
+
+    void start() {
+        if (state == ProfileState.CONNECTED) {
+            log("FRP Client already running and connected.");
+            return;
+        }
+        if (state.isRunning()) {
+            log("Already attempting connection. Please wait.");
+            return;
+        }
+        if (state == ProfileState.FAILED) {
+            log("Configuration is unusable; change it to start this profile.");
+            return;
+        }
+
+        log("Starting FRP Client with provided configuration...");
+        setState(ProfileState.CONNECTING, "Started");
+        updateNotification("Connecting...");
+        reconnectNow();
+    }
+
+    void reconnectNow() {
+        // The first call parses the config, which stays off the main thread
+        runtime.ioExecutor().execute(() -> {
+            snapshot();
+            // Clients take their session id from the event log, which may still be opening
+            runtime.eventLog().awaitReady(EVENT_LOG_WAIT_MS);
+            mainThread.execute(this::connectFRP);
+        });
+    }
+
+    private void connectFRP() {
+        if (stopped) {
+            return;
+        }
+        log("Attempting to connect to FRP server...");
+        NetworkSelector.Handle network = networkSelector.current();
+        FRPClient previous = frpClient;
+        if (previous != null && !previous.isClosed() && previous.getNetwork() == network) {
+            log("Connection attempt already in progress or already connected.");
+            return;
+        }
+        try {
+            // A client serves one session; every attempt gets a new one
+            frpClient = createClient(network);
+        } catch (IllegalArgumentException e) {
+            // The configuration itself is unusable; retrying cannot fix it
+            log("FRP Client configuration error: " + e.getMessage());
+            setState(ProfileState.FAILED, e.getMessage());
+            updateNotification("Configuration error.");
+            return;
+        }
+        if (previous != null) {
+            previous.disconnect("Replaced by a session on " + (network != null ? network.id() : "the default network"));
+        }
+        frpClient.connect();
+    }
+
+    private synchronized ClientConfig snapshot() {
+        if (snapshot == null) {
+            long start = System.nanoTime();
+            ClientConfig parsed = ClientConfig.parse(config);
+            long micros = (System.nanoTime() - start) / 1000L;
+            ValidationReport report = parsed.report();
+            mainThread.execute(() -> {
+                for (ValidationReport.Issue issue : report.issues()) {
+                    log((issue.severity == ValidationReport.Severity.ERROR ? "Config error: " : "Config warning: ") + issue);
+                }
+                log("Parsed " + parsed.proxies().size() + " proxies from " + parsed.format() + " configuration in "
+                        + micros + " us (" + report.errorCount() + " errors, " + report.warningCount() + " warnings).");
+            });
+            snapshot = parsed;
+        }
+        return snapshot;
+    }
+
+    private FRPClient createClient(NetworkSelector.Handle network) {
+        SessionListener sessionListener = new SessionListener();
+        FRPClient client = new FRPClient(snapshot(), network, runtime, sessionListener);
+        sessionListener.client = client;
+        runtime.eventLog().recordText(EventLog.EVENT_PROFILE, client.getSessionId(), EventLog.NO_PROXY, 0, 0, name);
+        return client;
+    }
+
+    /**
+     * Make-before-break: bring up a second session on the better network and only drop the
+     * current one once the new session has logged in. The standby does not register proxies
+     * while the current session holds them; promoteStandby() releases its registration.
+     * Work connections already relaying on the old session keep running until they finish or
+     * their network goes away.
+     */
+    private void startStandby(NetworkSelector.Handle network) {
+        if (standbyClient != null) {
+            if (standbyClient.getNetwork() == network) {
+                return;
+            }
+            standbyClient.disconnect("Superseded by " + network.id());
+        }
+        log("Better network " + network.id() + " available. Starting standby session for handover.");
+        try {
+            standbyClient = createClient(network);
+            standbyClient.holdRegistration();
+            standbyClient.connect();
+        } catch (IllegalArgumentException e) {
+            log("Standby session could not be created: " + e.getMessage());
+            standbyClient = null;
+        }
+    }
+
+    private void promoteStandby(String reason) {
+        FRPClient previous = frpClient;
+        frpClient = standbyClient;
+        standbyClient = null;
+        if (frpClient != null) {
+            runtime.eventLog().record(EventLog.EVENT_HANDOVER, frpClient.getSessionId(), EventLog.NO_PROXY,
+                    previous != null ? previous.getSessionId() : EventLog.NO_SESSION, 0);
+            // Requests the proxies now; the server frees them once the old session is gone,
+            // and the new session retries any it refuses in the meantime
+            frpClient.releaseRegistration();
+        }
+        if (previous != null) {
+            previous.disconnect(reason);
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (stopped || (reconnectTask != null && !reconnectTask.isDone())) {
+            // Only one pending reconnect, however many failures reported it
+            return;
+        }
+        log("Scheduling reconnect in " + RECONNECT_DELAY_SECONDS + " seconds...");
+        reconnectTask = runtime.timers().schedule(() -> mainThread.execute(() -> {
+            if (stopped) {
+                return;
+            }
+            if (host.isNetworkAvailable()) {
+                reconnectNow();
+            } else {
+                log("Network not available, postponing reconnect.");
+                scheduleReconnect(); // Reschedule if network is still down
+            }
+        }), RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    void onNetworkSelected(NetworkSelector.Handle network) {
+        if (!state.isRunning()) {
+            return;
+        }
+        if (frpClient != null && frpClient.isConnected()) {
+            if (frpClient.getNetwork() != network) {
+                startStandby(network);
+            }
+        } else if (frpClient == null || frpClient.getNetwork() != network) {
+            log("Network " + network.id() + " became available. Attempting reconnection...");
+            reconnectNow();
+        }
+    }
+
+    void onNetworkLost(NetworkSelector.Handle network) {
+        if (standbyClient != null && standbyClient.getNetwork() == network) {
+            standbyClient.disconnect("Network lost.");
+            standbyClient = null;
+        }
+        if (frpClient == null || frpClient.getNetwork() != network) {
+            return;
+        }
+        if (standbyClient != null) {
+            // The replacement session is already on its way up; let it take over
+            log("Network " + network.id() + " lost. Switching to standby session.");
+            promoteStandby("Network lost.");
+            if (!frpClient.isConnected()) {
+                setState(ProfileState.RECONNECTING, "Network lost; standby session connecting");
+            }
+        } else {
+            log("Network lost. Disconnecting FRP client.");
+            setState(ProfileState.RECONNECTING, "Network lost");
+            frpClient.disconnect("Network lost.");
+            updateNotification("Network lost.");
+        }
+    }
+
+    void stop(String reason) {
+        log("Stopping FRP Client...");
+        stopped = true;
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+        FRPClient standby = standbyClient;
+        standbyClient = null;
+        if (standby != null) {
+            standby.disconnect(reason);
+        }
+        FRPClient active = frpClient;
+        frpClient = null;
+        if (active != null) {
+            active.disconnect(reason);
+        }
+        log("FRP Client Stopped.");
+        setState(ProfileState.IDLE, reason);
+    }
+
+    void exportWorkTraces() {
+        FRPClient client = frpClient;
+        if (client == null) {
+            log("No FRP session, no work connection traces to export.");
+            return;
+        }
+        for (String trace : client.exportWorkTraces()) {
+            log(trace);
+        }
+    }
+
+    /**
+     * Moves to the given state and tells listeners. Repeating the current state is a no-op
+     * and transitions ProfileState does not allow are dropped.
+     */
+    private void setState(ProfileState next, String detail) {
+        if (next == state) {
+            return;
+        }
+        if (!state.canTransitionTo(next)) {
+            Log.w(TAG, "[" + name + "] Ignored state change " + state + " -> " + next);
+            return;
+        }
+        previousState = state;
+        state = next;
+        stateDetail = detail != null ? detail : "";
+        stateSeq = host.nextSeq();
+        stateTime = SystemClock.elapsedRealtime();
+        host.onStateChanged(this);
+    }
+
+    StateEvent currentEvent() {
+        return new StateEvent(stateSeq, name, previousState, state, stateDetail, stateTime);
+    }
+
+    private void log(String message) {
+        host.log(name, message);
+    }
+
+    private void updateNotification(String text) {
+        notificationText = text;
+        host.onNotificationChanged(this);
+    }
+
+    /**
+     * Routes callbacks from one FRPClient. Only the active session drives the retry logic and
+     * notification; the standby and retired sessions just log.
+     */
+    private class SessionListener implements FRPClient.FRPClientListener {
+        FRPClient client; // Set right after construction; null while the config is being parsed
+
+        private boolean isStandby() {
+            return client != null && client == standbyClient;
+        }
+
+        private boolean isRetired() {
+            return client != null && client != frpClient && client != standbyClient;
+        }
+
+        @Override
+        public void onConnected() {
+            mainThread.execute(() -> {
+                if (isStandby()) {
+                    String networkId = client.getNetwork() != null ? client.getNetwork().id() : "default network";
+                    promoteStandby("Handed over to " + networkId);
+                    log("Handover to " + networkId + " complete.");
+                } else if (isRetired()) {
+                    return;
+                }
+                log("FRP Client Connected!");
+                setState(ProfileState.CONNECTED, client.getNetwork() != null ? client.getNetwork().id() : "");
+                updateNotification("Connected");
+            });
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            mainThread.execute(() -> {
+                if (isStandby()) {
+                    log("Standby session closed: " + reason);
+                    standbyClient = null;
+                    return;
+                } else if (isRetired()) {
+                    log("Previous session closed: " + reason);
+                    return;
+                }
+                log("FRP Client Disconnected: " + reason);
+                if (stopped) {
+                    return;
+                }
+                setState(ProfileState.RECONNECTING, reason);
+                updateNotification("Disconnected. Retrying...");
+                scheduleReconnect();
+            });
+        }
+
+        @Override
+        public void onError(String error) {
+            mainThread.execute(() -> {
+                if (isStandby() || isRetired()) {
+                    log("Standby/previous session error: " + error);
+                    return;
+                }
+                log("FRP Client Error: " + error);
+                if (stopped || client.isConnected()) {
+                    return; // e.g. a rejected proxy; the session itself is fine
+                }
+                setState(ProfileState.RECONNECTING, error);
+                updateNotification("Error. Retrying...");
+                scheduleReconnect();
+            });
+        }
+
+        @Override
+        public void onLog(String message) {
+            mainThread.execute(() -> log(message));
+        }
+
+        @Override
+        public void onProxyStatus(String proxyName, boolean registered, String detail) {
+            mainThread.execute(() -> log("Proxy [" + proxyName + "] "
+                    + (registered ? "online: " : "failed: ") + detail));
+        }
+    }
+}
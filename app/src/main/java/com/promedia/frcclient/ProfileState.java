@@ -0,0 +1,41 @@
+package com.promedia.frcclient;
+
+import java.util.EnumSet;
+
+/**
+ * Lifecycle of one client profile in FRPService. Transitions not listed for a state are
+ * rejected, so listeners never see, say, CONNECTED followed by CONNECTING.
+ */
+public enum ProfileState {
+    /** Not started, or stopped by the user. */
+    IDLE,
+    /** Started; the first connection attempt is in progress. */
+    CONNECTING,
+    /** Logged in to the server. */
+    CONNECTED,
+    /** Connection lost or failed; a retry is scheduled or waiting for a network. */
+    RECONNECTING,
+    /** The configuration is unusable; nothing will be retried until it changes. */
+    FAILED;
+
+    private EnumSet<ProfileState> next;
+
+    static {
+        IDLE.next = EnumSet.of(CONNECTING);
+        CONNECTING.next = EnumSet.of(CONNECTED, RECONNECTING, FAILED, IDLE);
+        CONNECTED.next = EnumSet.of(RECONNECTING, IDLE);
+        RECONNECTING.next = EnumSet.of(CONNECTED, FAILED, IDLE);
+        FAILED.next = EnumSet.of(IDLE);
+    }
+
+    boolean canTransitionTo(ProfileState state) {
+        return next.contains(state);
+    }
+
+    /**
+     * Whether the service is keeping this profile up, i.e. it is anything but IDLE or FAILED.
+     */
+    public boolean isRunning() {
+        return this == CONNECTING || this == CONNECTED || this == RECONNECTING;
+    }
+}
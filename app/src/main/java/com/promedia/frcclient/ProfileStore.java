@@ -0,0 +1,97 @@
+package com.promedia.frcclient;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Saved client profiles: a name and an frpc.ini configuration each. The default profile keeps
+ * the original "frp_config" key so configurations saved before profiles existed still load.
+ */
+final class ProfileStore {
+
+    static final String PREFS_NAME = "FRPClientPrefs";
+    static final String KEY_AUTO_START = "frp_auto_start";
+    static final String DEFAULT_PROFILE = "default";
+
+    private static final String KEY_CONFIG = "frp_config";
+    private static final String KEY_PROFILES = "frp_profiles";
+    private static final String KEY_LAST_PROFILE = "frp_last_profile";
+    private static final String KEY_RUNNING = "frp_running_profiles";
+
+    private final SharedPreferences prefs;
+
+    ProfileStore(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Names of every saved profile, sorted. Includes the default profile if it has a configuration.
+     */
+    Set<String> names() {
+        Set<String> names = new TreeSet<>(prefs.getStringSet(KEY_PROFILES, new TreeSet<String>()));
+        if (!prefs.getString(KEY_CONFIG, "").isEmpty()) {
+            names.add(DEFAULT_PROFILE);
+        }
+        return names;
+    }
+
+    String loadConfig(String profile) {
+        return prefs.getString(configKey(profile), "");
+    }
+
+    void saveConfig(String profile, String config) {
+        // getStringSet's result must not be modified in place
+        Set<String> names = new TreeSet<>(prefs.getStringSet(KEY_PROFILES, new TreeSet<String>()));
+        names.add(profile);
+        prefs.edit()
+                .putString(configKey(profile), config)
+                .putStringSet(KEY_PROFILES, names)
+                .putString(KEY_LAST_PROFILE, profile)
+                .apply();
+    }
+
+    String lastProfile() {
+        return prefs.getString(KEY_LAST_PROFILE, DEFAULT_PROFILE);
+    }
+
+    /**
+     * Profiles started and not stopped by the user. The service brings them back when the system
+     * restarts it after killing the process.
+     */
+    Set<String> runningProfiles() {
+        return new TreeSet<>(prefs.getStringSet(KEY_RUNNING, new TreeSet<String>()));
+    }
+
+    void setRunning(String profile, boolean running) {
+        Set<String> profiles = runningProfiles();
+        if (running ? profiles.add(profile) : profiles.remove(profile)) {
+            prefs.edit().putStringSet(KEY_RUNNING, profiles).apply();
+        }
+    }
+
+    void clearRunning() {
+        prefs.edit().remove(KEY_RUNNING).apply();
+    }
+
+    boolean isAutoStartEnabled() {
+        return prefs.getBoolean(KEY_AUTO_START, false);
+    }
+
+    void setAutoStartEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_AUTO_START, enabled).apply();
+    }
+
+    /**
+     * Profile names become preference keys and log prefixes, so keep them to a safe alphabet.
+     */
+    static boolean isValidName(String profile) {
+        return profile != null && profile.matches("[a-zA-Z0-9_-]{1,32}");
+    }
+
+    private static String configKey(String profile) {
+        return DEFAULT_PROFILE.equals(profile) ? KEY_CONFIG : KEY_CONFIG + "_" + profile;
+    }
+}
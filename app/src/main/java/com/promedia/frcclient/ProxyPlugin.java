@@ -0,0 +1,48 @@
+package com.promedia.frcclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.Map;
+
+/**
+ * Serves a proxy inside the client instead of forwarding to a separate process on
+ * localIp:localPort. Selected with {@code plugin = socks5|http_proxy|static_file}.
+ */
+interface ProxyPlugin {
+
+    int CONNECT_TIMEOUT_MS = 10000; // 10 seconds
+
+    /**
+     * Handles the start of a work connection.
+     *
+     * @param conn work connection to the server; use its output stream or channel for replies
+     * @param in   buffered view of conn's input; keep reading from this one, not conn's stream
+     * @return a connected backend socket to relay the rest of the connection with, or null if
+     *         the plugin served the connection itself
+     */
+    Socket handle(TunnelConn conn, InputStream in) throws IOException;
+
+    /**
+     * Creates the plugin configured by a proxy section.
+     *
+     * @throws IllegalArgumentException if the plugin is unknown or a required option is missing
+     */
+    static ProxyPlugin fromConfig(String plugin, Map<String, String> section) {
+        switch (plugin) {
+            case "socks5":
+                return new Socks5Plugin(section.get("plugin_user"), section.get("plugin_passwd"));
+            case "http_proxy":
+                return new HttpProxyPlugin(section.get("plugin_http_user"), section.get("plugin_http_passwd"));
+            case "static_file":
+                String localPath = section.get("plugin_local_path");
+                if (localPath == null || localPath.isEmpty()) {
+                    throw new IllegalArgumentException("plugin_local_path is required for static_file.");
+                }
+                return new StaticFilePlugin(localPath, section.get("plugin_strip_prefix"),
+                        section.get("plugin_http_user"), section.get("plugin_http_passwd"));
+            default:
+                throw new IllegalArgumentException("Unknown plugin: " + plugin);
+        }
+    }
+}
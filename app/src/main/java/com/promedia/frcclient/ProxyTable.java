@@ -0,0 +1,173 @@
+package com.promedia.frcclient;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact store for proxy definitions.
+ *
+ * Each proxy is a row across parallel primitive arrays, addressed by its index, so thousands of
+ * port-range entries cost a few bytes each instead of one heap object plus a HashMap entry.
+ * Names are resolved through an open-addressing hash of row indices, which keeps lookups on the
+ * NewWork path O(1) and allocation-free. A table is filled by the config parser and frozen
+ * before any client uses it, so it can be shared without locking.
+ */
+final class ProxyTable {
+
+    static final byte TYPE_TCP = 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final TransportProfile[] PROFILES = TransportProfile.values();
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private String[] localIps = new String[INITIAL_CAPACITY];
+    private int[] localPorts = new int[INITIAL_CAPACITY];
+    private int[] remotePorts = new int[INITIAL_CAPACITY];
+    private byte[] profiles = new byte[INITIAL_CAPACITY];
+    private ProxyPlugin[] plugins = new ProxyPlugin[INITIAL_CAPACITY]; // null for plain local forwarding
+    private int size = 0;
+    private boolean frozen = false;
+
+    // Open-addressing index: each slot holds (row + 1), 0 marks an empty slot
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    // Expanded ranges repeat the same local IP; keep a single instance of each
+    private final Map<String, String> internedIps = new HashMap<>();
+
+    /**
+     * Adds a proxy and returns its row index, or -1 if a proxy with the same name already exists.
+     */
+    int add(String name, byte type, String localIp, int localPort, int remotePort, TransportProfile profile,
+            ProxyPlugin plugin) {
+        if (frozen) {
+            throw new IllegalStateException("Proxy table is frozen.");
+        }
+        if (indexOf(name) >= 0) {
+            return -1;
+        }
+        if (size == names.length) {
+            grow();
+        }
+        int row = size++;
+        names[row] = name;
+        types[row] = type;
+        localIps[row] = intern(localIp);
+        localPorts[row] = localPort;
+        remotePorts[row] = remotePort;
+        profiles[row] = (byte) profile.ordinal();
+        plugins[row] = plugin;
+        insertSlot(row);
+        return row;
+    }
+
+    /**
+     * Returns the row index for the given proxy name, or -1 if it is unknown.
+     */
+    int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            String candidate = names[entry - 1];
+            if (candidate == name || candidate.equals(name)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Makes the table read-only; later add() calls fail.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String name(int row) {
+        return names[row];
+    }
+
+    byte type(int row) {
+        return types[row];
+    }
+
+    String typeName(int row) {
+        return types[row] == TYPE_TCP ? "tcp" : "unknown";
+    }
+
+    String localIp(int row) {
+        return localIps[row];
+    }
+
+    int localPort(int row) {
+        return localPorts[row];
+    }
+
+    int remotePort(int row) {
+        return remotePorts[row];
+    }
+
+    TransportProfile profile(int row) {
+        return PROFILES[profiles[row]];
+    }
+
+    ProxyPlugin plugin(int row) {
+        return plugins[row];
+    }
+
+    private String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = internedIps.get(value);
+        if (existing == null) {
+            internedIps.put(value, value);
+            existing = value;
+        }
+        return existing;
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        types = Arrays.copyOf(types, capacity);
+        localIps = Arrays.copyOf(localIps, capacity);
+        localPorts = Arrays.copyOf(localPorts, capacity);
+        remotePorts = Arrays.copyOf(remotePorts, capacity);
+        profiles = Arrays.copyOf(profiles, capacity);
+        plugins = Arrays.copyOf(plugins, capacity);
+
+        // Keep the index at most half full
+        slots = new int[capacity * 2];
+        for (int row = 0; row < size; row++) {
+            insertSlot(row);
+        }
+    }
+
+    private void insertSlot(int row) {
+        int mask = slots.length - 1;
+        int slot = mix(names[row].hashCode()) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private static int mix(int hash) {
+        // Spread sequential names such as game_0, game_1 across the table
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
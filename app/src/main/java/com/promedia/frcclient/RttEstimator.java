@@ -0,0 +1,23 @@
+package com.promedia.frcclient;
+
+/**
+ * Smoothed round-trip time of the control connection, fed by Ping/Pong exchanges.
+ * Uses the same 1/8 gain as TCP's SRTT so a single slow pong does not swing relay sizing.
+ */
+final class RttEstimator {
+
+    static final int DEFAULT_RTT_MS = 100; // Assumed until the first pong arrives
+
+    private volatile int smoothedMillis = 0;
+
+    void update(long sampleMillis) {
+        int sample = (int) Math.max(1, Math.min(sampleMillis, 60000));
+        int current = smoothedMillis;
+        smoothedMillis = current == 0 ? sample : current + (sample - current) / 8;
+    }
+
+    int millis() {
+        int current = smoothedMillis;
+        return current == 0 ? DEFAULT_RTT_MS : current;
+    }
+}
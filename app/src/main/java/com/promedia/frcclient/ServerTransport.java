@@ -0,0 +1,17 @@
+package com.promedia.frcclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Dials connections to the FRP server, selected by {@code protocol} in [common].
+ * One instance serves the control connection and all work connections of a session.
+ */
+interface ServerTransport extends Closeable {
+
+    TunnelConn dial(String host, int port, int timeoutMs) throws IOException;
+
+    /** Stops accepting dials. Connections already dialed stay usable until closed individually. */
+    @Override
+    void close();
+}
@@ -0,0 +1,131 @@
+package com.promedia.frcclient;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SOCKS5 server (RFC 1928) on the work connection. Supports CONNECT with IPv4, IPv6 and domain
+ * addresses, and username/password authentication (RFC 1929) when plugin_user is set.
+ */
+class Socks5Plugin implements ProxyPlugin {
+
+    private static final int VERSION = 5;
+    private static final int METHOD_NO_AUTH = 0x00;
+    private static final int METHOD_USER_PASS = 0x02;
+    private static final int METHOD_NONE_ACCEPTABLE = 0xff;
+    private static final int CMD_CONNECT = 1;
+    private static final int ATYP_IPV4 = 1;
+    private static final int ATYP_DOMAIN = 3;
+    private static final int ATYP_IPV6 = 4;
+    private static final int REP_SUCCEEDED = 0x00;
+    private static final int REP_GENERAL_FAILURE = 0x01;
+    private static final int REP_HOST_UNREACHABLE = 0x04;
+    private static final int REP_CONNECTION_REFUSED = 0x05;
+    private static final int REP_COMMAND_NOT_SUPPORTED = 0x07;
+    private static final int REP_ADDRESS_NOT_SUPPORTED = 0x08;
+
+    private final String user;
+    private final String password;
+
+    Socks5Plugin(String user, String password) {
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public Socket handle(TunnelConn conn, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        OutputStream out = conn.getOutputStream();
+
+        // Greeting: VER NMETHODS METHODS...
+        if (data.readUnsignedByte() != VERSION) {
+            throw new IOException("Not a SOCKS5 client.");
+        }
+        byte[] methods = new byte[data.readUnsignedByte()];
+        data.readFully(methods);
+        int wanted = user != null && !user.isEmpty() ? METHOD_USER_PASS : METHOD_NO_AUTH;
+        boolean offered = false;
+        for (byte method : methods) {
+            offered |= (method & 0xff) == wanted;
+        }
+        if (!offered) {
+            out.write(new byte[]{VERSION, (byte) METHOD_NONE_ACCEPTABLE});
+            out.flush();
+            return null;
+        }
+        out.write(new byte[]{VERSION, (byte) wanted});
+        out.flush();
+
+        if (wanted == METHOD_USER_PASS && !authenticate(data, out)) {
+            return null;
+        }
+
+        // Request: VER CMD RSV ATYP DST.ADDR DST.PORT
+        data.readUnsignedByte();
+        int command = data.readUnsignedByte();
+        data.readUnsignedByte();
+        int addressType = data.readUnsignedByte();
+        String host;
+        if (addressType == ATYP_IPV4 || addressType == ATYP_IPV6) {
+            byte[] raw = new byte[addressType == ATYP_IPV4 ? 4 : 16];
+            data.readFully(raw);
+            host = InetAddress.getByAddress(raw).getHostAddress();
+        } else if (addressType == ATYP_DOMAIN) {
+            byte[] raw = new byte[data.readUnsignedByte()];
+            data.readFully(raw);
+            host = new String(raw, StandardCharsets.US_ASCII);
+        } else {
+            reply(out, REP_ADDRESS_NOT_SUPPORTED);
+            return null;
+        }
+        int port = data.readUnsignedShort();
+
+        if (command != CMD_CONNECT) {
+            reply(out, REP_COMMAND_NOT_SUPPORTED);
+            return null;
+        }
+
+        Socket target = new Socket();
+        try {
+            target.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        } catch (ConnectException e) {
+            target.close();
+            reply(out, REP_CONNECTION_REFUSED);
+            return null;
+        } catch (IOException e) {
+            target.close();
+            reply(out, e instanceof UnknownHostException ? REP_HOST_UNREACHABLE : REP_GENERAL_FAILURE);
+            return null;
+        }
+        reply(out, REP_SUCCEEDED);
+        return target;
+    }
+
+    private boolean authenticate(DataInputStream data, OutputStream out) throws IOException {
+        // RFC 1929: VER ULEN UNAME PLEN PASSWD
+        data.readUnsignedByte();
+        byte[] name = new byte[data.readUnsignedByte()];
+        data.readFully(name);
+        byte[] secret = new byte[data.readUnsignedByte()];
+        data.readFully(secret);
+        boolean ok = user.equals(new String(name, StandardCharsets.UTF_8))
+                && (password != null ? password : "").equals(new String(secret, StandardCharsets.UTF_8));
+        out.write(new byte[]{1, (byte) (ok ? 0 : 1)});
+        out.flush();
+        return ok;
+    }
+
+    private static void reply(OutputStream out, int status) throws IOException {
+        // Bound address is not meaningful here; report 0.0.0.0:0
+        out.write(new byte[]{VERSION, (byte) status, 0, ATYP_IPV4, 0, 0, 0, 0, 0, 0});
+        out.flush();
+    }
+}
@@ -0,0 +1,32 @@
+package com.promedia.frcclient;
+
+/**
+ * A profile's state change, as delivered to FRPService.ServiceListener.
+ *
+ * Sequence numbers are shared with log events and increase by one per event, so a listener can
+ * order events and tell when it attached partway through.
+ */
+public final class StateEvent {
+
+    public final long seq;
+    public final String profile;
+    public final ProfileState previous;
+    public final ProfileState state;
+    public final String detail;        // Reason for the change, may be empty
+    public final long elapsedRealtime; // SystemClock.elapsedRealtime() of the change
+
+    StateEvent(long seq, String profile, ProfileState previous, ProfileState state, String detail,
+               long elapsedRealtime) {
+        this.seq = seq;
+        this.profile = profile;
+        this.previous = previous;
+        this.state = state;
+        this.detail = detail;
+        this.elapsedRealtime = elapsedRealtime;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + seq + " [" + profile + "] " + previous + " -> " + state + (detail.isEmpty() ? "" : ": " + detail);
+    }
+}
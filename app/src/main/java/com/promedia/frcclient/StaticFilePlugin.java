@@ -0,0 +1,211 @@
+package com.promedia.frcclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Serves files under plugin_local_path over HTTP on the work connection. File bodies go out with
+ * FileChannel.transferTo, which the kernel can turn into a zero-copy send on TCP work connections.
+ * One request per connection; the response always closes it.
+ */
+class StaticFilePlugin implements ProxyPlugin {
+
+    private final File root;
+    private final String stripPrefix;
+    private final String user;
+    private final String password;
+
+    StaticFilePlugin(String localPath, String stripPrefix, String user, String password) {
+        this.root = new File(localPath);
+        this.stripPrefix = normalizePrefix(stripPrefix);
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public Socket handle(TunnelConn conn, InputStream in) throws IOException {
+        OutputStream out = conn.getOutputStream();
+        HttpRequestHead head = HttpRequestHead.read(in);
+        if (head == null) {
+            return null;
+        }
+        if (!head.isAuthorized("Authorization", user, password)) {
+            respond(out, "401 Unauthorized", "WWW-Authenticate: Basic realm=\"frpc\"\r\n", null);
+            return null;
+        }
+        boolean headOnly = "HEAD".equalsIgnoreCase(head.method);
+        if (!headOnly && !"GET".equalsIgnoreCase(head.method)) {
+            respond(out, "405 Method Not Allowed", "Allow: GET, HEAD\r\n", null);
+            return null;
+        }
+
+        // Links and redirects are built from the raw path; the query does not belong in them
+        String rawPath = head.target;
+        String query = "";
+        int queryStart = rawPath.indexOf('?');
+        if (queryStart >= 0) {
+            query = rawPath.substring(queryStart);
+            rawPath = rawPath.substring(0, queryStart);
+        }
+        String path = percentDecode(rawPath);
+        if (path != null && path.length() > 1 && stripPrefix.equals(path + "/")) {
+            // The bare prefix: redirect, so relative links in the served pages resolve under it
+            respond(out, "301 Moved Permanently", "Location: " + rawPath + "/" + query + "\r\n", null);
+            return null;
+        }
+        if (path == null || !path.startsWith(stripPrefix)) {
+            respond(out, "404 Not Found", "", null);
+            return null;
+        }
+        path = path.substring(stripPrefix.length());
+
+        File file = new File(root, path);
+        String rootPath = root.getCanonicalPath();
+        String filePath = file.getCanonicalPath();
+        if (!filePath.equals(rootPath) && !filePath.startsWith(rootPath + File.separator)) {
+            respond(out, "403 Forbidden", "", null); // Path traversal outside the served directory
+            return null;
+        }
+        if (file.isDirectory()) {
+            File index = new File(file, "index.html");
+            if (index.isFile()) {
+                file = index;
+            } else {
+                respond(out, "200 OK", "Content-Type: text/html; charset=utf-8\r\n",
+                        headOnly ? null : listing(rawPath, file));
+                return null;
+            }
+        }
+        if (!file.isFile() || !file.canRead()) {
+            respond(out, "404 Not Found", "", null);
+            return null;
+        }
+
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            FileChannel channel = fileIn.getChannel();
+            long size = channel.size();
+            String contentType = URLConnection.guessContentTypeFromName(file.getName());
+            String headers = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: " + (contentType != null ? contentType : "application/octet-stream") + "\r\n"
+                    + "Content-Length: " + size + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            out.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            if (!headOnly) {
+                WritableByteChannel target = conn.writableChannel();
+                long position = 0;
+                while (position < size) {
+                    long sent = channel.transferTo(position, size - position, target);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    position += sent;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the directory with absolute links under requestPath, which is the raw request path
+     * without its query.
+     */
+    private static byte[] listing(String requestPath, File directory) {
+        String base = escapeHtml(requestPath.endsWith("/") ? requestPath : requestPath + "/");
+        StringBuilder html = new StringBuilder("<html><body><ul>\n");
+        String[] names = directory.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                String escaped = escapeHtml(name);
+                html.append("<li><a href=\"").append(base).append(percentEncode(name)).append("\">")
+                        .append(escaped).append("</a></li>\n");
+            }
+        }
+        html.append("</ul></body></html>\n");
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    private static void respond(OutputStream out, String status, String extraHeaders, byte[] body) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + extraHeaders
+                + "Content-Length: " + (body != null ? body.length : 0) + "\r\nConnection: close\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static String normalizePrefix(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return "/";
+        }
+        String normalized = prefix.startsWith("/") ? prefix : "/" + prefix;
+        return normalized.endsWith("/") ? normalized : normalized + "/";
+    }
+
+    /**
+     * Escapes a file name for use as one URL path segment. Only unreserved characters stay as
+     * they are, so names containing '?', '#', '%' or spaces still link to themselves.
+     */
+    private static String percentEncode(String name) {
+        StringBuilder encoded = new StringBuilder(name.length());
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~') {
+                encoded.append((char) c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Decodes %XX escapes in a URL path. Unlike URLDecoder, '+' stays a literal plus sign.
+     * Returns null for malformed escapes.
+     */
+    private static String percentDecode(String path) {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= path.length()) {
+                    return null;
+                }
+                int high = Character.digit(path.charAt(i + 1), 16);
+                int low = Character.digit(path.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                decoded.write(high << 4 | low);
+                i += 2;
+            } else {
+                int end = path.indexOf('%', i);
+                if (end < 0) {
+                    end = path.length();
+                }
+                byte[] bytes = path.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                decoded.write(bytes, 0, bytes.length);
+                i = end - 1;
+            }
+        }
+        return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
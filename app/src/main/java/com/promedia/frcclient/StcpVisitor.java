@@ -0,0 +1,300 @@
+package com.promedia.frcclient;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves one stcp visitor for a session. Each connection accepted on the visitor's local port
+ * gets its own server connection, which announces itself with NewVisitorConn: the name of the
+ * stcp proxy to reach and md5(sk + timestamp), which the server checks against the proxy's sk.
+ * Once the server accepts, the VisitorLoop relays the two connections.
+ *
+ * A server connection carries exactly one visitor connection, so it cannot be reused. Instead
+ * each accept tops up a small pool of connections dialed in advance, so the next accepts of a
+ * burst (a browser opening several connections, say) skip the TCP handshake to the server.
+ * frps drops a connection that stays silent for 10 seconds, so pooled connections older than
+ * POOL_IDLE_MS are closed rather than used.
+ */
+final class StcpVisitor {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;   // 10 seconds
+    private static final int HANDSHAKE_TIMEOUT_MS = 10000; // Waiting for NewVisitorConnResp
+    private static final int MAX_RESPONSE_BYTES = 4096;
+    private static final int POOL_SIZE = 2;                // Server connections kept ready after an accept
+    private static final long POOL_IDLE_MS = 7000;
+
+    private static final class Pooled {
+        final SocketChannel channel;
+        final long dialedAt; // System.nanoTime()
+
+        Pooled(SocketChannel channel, long dialedAt) {
+            this.channel = channel;
+            this.dialedAt = dialedAt;
+        }
+
+        boolean isStale(long now) {
+            return now - dialedAt >= TimeUnit.MILLISECONDS.toNanos(POOL_IDLE_MS);
+        }
+    }
+
+    private final VisitorConfig config;
+    private final int row; // Proxy field of this visitor's event log records
+    private final TcpTransport transport;
+    private final String serverAddr;
+    private final int serverPort;
+    private final String runId;
+    private final ClientRuntime runtime;
+    private final VisitorLoop loop;
+    private final FRPClient.FRPClientListener listener;
+    private final EventLog eventLog;
+    private final int sessionId;
+    private final ArrayDeque<Pooled> pool = new ArrayDeque<>(); // Guarded by itself
+    private int dialing = 0;                                     // Guarded by pool
+    private volatile boolean stopped = false;
+
+    StcpVisitor(VisitorConfig config, int row, TcpTransport transport, String serverAddr, int serverPort,
+                String runId, ClientRuntime runtime, VisitorLoop loop, FRPClient.FRPClientListener listener,
+                int sessionId) {
+        this.config = config;
+        this.row = row;
+        this.transport = transport;
+        this.serverAddr = serverAddr;
+        this.serverPort = serverPort;
+        this.runId = runId;
+        this.runtime = runtime;
+        this.loop = loop;
+        this.listener = listener;
+        this.eventLog = runtime.eventLog();
+        this.sessionId = sessionId;
+    }
+
+    VisitorConfig config() {
+        return config;
+    }
+
+    void start() throws IOException {
+        loop.listen(this);
+        eventLog.recordText(EventLog.EVENT_VISITOR_LISTENING, sessionId, row, 0, 0, config.bindAddress());
+        listener.onLog("Visitor [" + config.name + "] listening on " + config.bindAddress()
+                + " for stcp proxy " + config.serverName + ".");
+    }
+
+    /**
+     * Stops accepting and closes the pooled connections. Relays already running are not affected.
+     */
+    void stop() {
+        stopped = true;
+        loop.unlisten(this);
+        synchronized (pool) {
+            for (Pooled pooled : pool) {
+                closeQuietly(pooled.channel);
+            }
+            pool.clear();
+        }
+    }
+
+    /**
+     * Called on the loop thread for every accepted connection; the handshake runs on an I/O thread.
+     */
+    void onAccepted(SocketChannel local) {
+        if (stopped) {
+            closeQuietly(local);
+            return;
+        }
+        runtime.ioExecutor().execute(() -> forward(local));
+    }
+
+    private void forward(SocketChannel local) {
+        long start = System.nanoTime();
+        SocketChannel server = takePooled();
+        boolean pooled = server != null;
+        refill();
+        try {
+            if (server == null) {
+                server = transport.dialChannel(serverAddr, serverPort, CONNECT_TIMEOUT_MS);
+            }
+            String error;
+            try {
+                error = handshake(server);
+            } catch (IOException e) {
+                if (!pooled) {
+                    throw e;
+                }
+                // The server may have closed the pooled connection; try once more on a fresh one
+                closeQuietly(server);
+                server = null;
+                pooled = false;
+                server = transport.dialChannel(serverAddr, serverPort, CONNECT_TIMEOUT_MS);
+                error = handshake(server);
+            }
+            if (!error.isEmpty()) {
+                throw new IOException("Server refused visitor: " + error);
+            }
+            eventLog.record(EventLog.EVENT_VISITOR_CONNECTED, sessionId, row,
+                    (System.nanoTime() - start) / 1000000L, pooled ? 1 : 0);
+            if (!loop.relay(local, server, sessionId, row)) {
+                listener.onLog("Relay memory budget exhausted, refusing visitor connection for [" + config.name + "].");
+            }
+        } catch (IOException e) {
+            listener.onLog("Visitor [" + config.name + "] connection failed: " + e.getMessage());
+            eventLog.recordText(EventLog.EVENT_VISITOR_FAILED, sessionId, row, 0, 0, e.getMessage());
+            closeQuietly(server);
+            closeQuietly(local);
+        } catch (JSONException e) {
+            listener.onError("Failed to create NewVisitorConn JSON: " + e.getMessage());
+            closeQuietly(server);
+            closeQuietly(local);
+        }
+    }
+
+    /**
+     * Sends NewVisitorConn and waits for the reply. Returns the server's error, empty if it
+     * accepted the connection.
+     */
+    private String handshake(SocketChannel server) throws IOException, JSONException {
+        long timestamp = System.currentTimeMillis() / 1000;
+        JSONObject visitorMsg = new JSONObject();
+        visitorMsg.put("type", "NewVisitorConn");
+        JSONObject content = new JSONObject();
+        content.put("run_id", runId);
+        content.put("proxy_name", config.serverName);
+        content.put("sign_key", authKey(config.secretKey, timestamp));
+        content.put("timestamp", timestamp);
+        content.put("use_encryption", false);
+        content.put("use_compression", false);
+        visitorMsg.put("content", content);
+
+        // Still in blocking mode; the socket streams honor the read timeout, the channel would not
+        Socket socket = server.socket();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        OutputStream out = socket.getOutputStream();
+        out.write((visitorMsg.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        JSONObject response = new JSONObject(readLine(socket.getInputStream()));
+        if (!"NewVisitorConnResp".equals(response.optString("type"))) {
+            throw new IOException("Unexpected reply to NewVisitorConn: " + response.optString("type"));
+        }
+        JSONObject responseContent = response.optJSONObject("content");
+        socket.setSoTimeout(0);
+        return responseContent != null ? responseContent.optString("error") : "";
+    }
+
+    /**
+     * Reads the reply line byte by byte, so relayed data that follows it stays in the socket.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Server closed the visitor connection.");
+            }
+            if (line.size() >= MAX_RESPONSE_BYTES) {
+                throw new IOException("NewVisitorConnResp too long.");
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * md5 hex of the secret key followed by the timestamp, as frp signs visitor connections.
+     */
+    static String authKey(String secretKey, long timestamp) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest((secretKey + timestamp).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte value : digest) {
+                hex.append(Character.forDigit((value >> 4) & 0xf, 16)).append(Character.forDigit(value & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform provides MD5
+        }
+    }
+
+    private SocketChannel takePooled() {
+        long now = System.nanoTime();
+        synchronized (pool) {
+            Pooled pooled;
+            while ((pooled = pool.poll()) != null) {
+                if (!pooled.isStale(now) && pooled.channel.isConnected()) {
+                    return pooled.channel;
+                }
+                closeQuietly(pooled.channel);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Dials server connections until the pool, counting dials in flight, is back to POOL_SIZE.
+     */
+    private void refill() {
+        int missing;
+        synchronized (pool) {
+            missing = stopped ? 0 : POOL_SIZE - pool.size() - dialing;
+            dialing += Math.max(0, missing);
+        }
+        for (int i = 0; i < missing; i++) {
+            runtime.ioExecutor().execute(this::dialPooled);
+        }
+    }
+
+    private void dialPooled() {
+        SocketChannel channel = null;
+        try {
+            channel = transport.dialChannel(serverAddr, serverPort, CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            // The next accept dials on demand
+        }
+        synchronized (pool) {
+            dialing--;
+            if (channel != null) {
+                if (stopped) {
+                    closeQuietly(channel);
+                } else {
+                    pool.add(new Pooled(channel, System.nanoTime()));
+                }
+            }
+        }
+        if (channel != null && !stopped) {
+            // Unused connections are closed before frps times them out
+            runtime.timers().schedule(this::closeStale, POOL_IDLE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void closeStale() {
+        long now = System.nanoTime();
+        synchronized (pool) {
+            while (!pool.isEmpty() && pool.peek().isStale(now)) {
+                closeQuietly(pool.poll().channel);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do here
+            }
+        }
+    }
+}
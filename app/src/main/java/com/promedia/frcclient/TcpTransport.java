@@ -0,0 +1,100 @@
+package com.promedia.frcclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Plain TCP connections to the server, bound to the selected network when one is set.
+ */
+class TcpTransport implements ServerTransport {
+
+    private final NetworkSelector.Handle network; // null means the system default network
+    private final DnsCache dnsCache;
+
+    TcpTransport(NetworkSelector.Handle network, DnsCache dnsCache) {
+        this.network = network;
+        this.dnsCache = dnsCache;
+    }
+
+    @Override
+    public TunnelConn dial(String host, int port, int timeoutMs) throws IOException {
+        // Channel-backed socket so static_file can hand file data straight to it
+        return new SocketConn(dialChannel(host, port, timeoutMs).socket());
+    }
+
+    /**
+     * Dials a connection and returns its channel, still in blocking mode, for callers that later
+     * hand it to a selector.
+     */
+    SocketChannel dialChannel(String host, int port, int timeoutMs) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        Socket socket = channel.socket();
+        try {
+            if (network != null) {
+                network.bindSocket(socket);
+            }
+            socket.connect(new InetSocketAddress(dnsCache.resolve(network, host), port), timeoutMs);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            // The server may have moved; look it up again next time
+            dnsCache.invalidate(network, host);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing shared between TCP connections
+    }
+
+    private static class SocketConn implements TunnelConn {
+        private final Socket socket;
+
+        SocketConn(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public WritableByteChannel writableChannel() throws IOException {
+            SocketChannel channel = socket.getChannel();
+            return channel != null ? channel : Channels.newChannel(socket.getOutputStream());
+        }
+
+        @Override
+        public void setReadTimeout(int timeoutMs) throws IOException {
+            socket.setSoTimeout(timeoutMs);
+        }
+
+        @Override
+        public void applyProfile(TransportProfile profile) throws IOException {
+            profile.apply(socket);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
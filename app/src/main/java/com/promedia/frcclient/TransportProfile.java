@@ -0,0 +1,63 @@
+package com.promedia.frcclient;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Socket tuning applied to a proxy's work and backend connections, selected per proxy with
+ * {@code transport_profile = interactive|bulk}.
+ *
+ * Interactive proxies (SSH, VNC) want every keystroke on the wire immediately and small buffers
+ * so nothing queues behind them. Bulk proxies (file transfers) want large buffers and relay
+ * chunks sized to the measured bandwidth-delay product.
+ */
+enum TransportProfile {
+
+    INTERACTIVE(true, 16 * 1024, 16 * 1024, true, 4 * 1024, 4 * 1024, 4 * 1024),
+    BULK(false, 512 * 1024, 512 * 1024, false, 16 * 1024, 64 * 1024, 256 * 1024);
+
+    final boolean tcpNoDelay;
+    final int sendBufferSize;
+    final int receiveBufferSize;
+    final boolean keepAlive;
+    final int minChunkSize;
+    final int initialChunkSize;
+    final int maxChunkSize;
+
+    TransportProfile(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize, boolean keepAlive,
+                     int minChunkSize, int initialChunkSize, int maxChunkSize) {
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.keepAlive = keepAlive;
+        this.minChunkSize = minChunkSize;
+        this.initialChunkSize = initialChunkSize;
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Returns the profile for a config value, or null if the value is not recognised.
+     */
+    static TransportProfile fromConfig(String value) {
+        if (value == null || value.isEmpty() || "interactive".equalsIgnoreCase(value)) {
+            return INTERACTIVE;
+        } else if ("bulk".equalsIgnoreCase(value)) {
+            return BULK;
+        }
+        return null;
+    }
+
+    /**
+     * Applies the options to a socket. Buffer sizes are hints the kernel may round or cap.
+     */
+    void apply(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        socket.setSendBufferSize(sendBufferSize);
+        socket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    boolean isAdaptive() {
+        return minChunkSize != maxChunkSize;
+    }
+}
@@ -0,0 +1,32 @@
+package com.promedia.frcclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A byte stream to the FRP server, over TCP or KCP. Carries either the control channel or one
+ * work connection.
+ */
+interface TunnelConn extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Channel view of the output side, for FileChannel.transferTo. On TCP this is the socket's
+     * own channel, so the kernel can send file data without copying it through the heap.
+     */
+    WritableByteChannel writableChannel() throws IOException;
+
+    /** Blocking reads throw SocketTimeoutException after this many milliseconds; 0 waits forever. */
+    void setReadTimeout(int timeoutMs) throws IOException;
+
+    /** Applies per-proxy tuning. Transports without matching knobs ignore it. */
+    void applyProfile(TransportProfile profile) throws IOException;
+
+    boolean isClosed();
+}
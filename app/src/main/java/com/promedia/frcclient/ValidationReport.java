@@ -0,0 +1,83 @@
+package com.promedia.frcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every problem found while parsing a configuration, with the line it was found on.
+ *
+ * Errors mean something in the file was not applied (a proxy was skipped, a value was replaced
+ * by its default); warnings mean something was ignored that the user probably wants to know
+ * about, such as an unknown key. Only the parser adds issues.
+ */
+final class ValidationReport {
+
+    enum Severity { ERROR, WARNING }
+
+    static final class Issue {
+        final Severity severity;
+        final int line;       // 1-based, 0 if the issue is not tied to a line
+        final String section; // Section or proxy name, null for the file as a whole
+        final String message;
+
+        Issue(Severity severity, int line, String section, String message) {
+            this.severity = severity;
+            this.line = line;
+            this.section = section;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            if (line > 0) {
+                text.append("Line ").append(line).append(' ');
+            }
+            if (section != null) {
+                text.append('[').append(section).append("] ");
+            }
+            return text.append(message).toString();
+        }
+    }
+
+    private final List<Issue> issues = new ArrayList<>();
+    private int errorCount = 0;
+
+    void error(int line, String section, String message) {
+        issues.add(new Issue(Severity.ERROR, line, section, message));
+        errorCount++;
+    }
+
+    void warning(int line, String section, String message) {
+        issues.add(new Issue(Severity.WARNING, line, section, message));
+    }
+
+    List<Issue> issues() {
+        return Collections.unmodifiableList(issues);
+    }
+
+    boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    int errorCount() {
+        return errorCount;
+    }
+
+    int warningCount() {
+        return issues.size() - errorCount;
+    }
+
+    @Override
+    public String toString() {
+        if (issues.isEmpty()) {
+            return "No problems found.";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Issue issue : issues) {
+            text.append(issue.severity == Severity.ERROR ? "error: " : "warning: ").append(issue).append('\n');
+        }
+        return text.toString();
+    }
+}
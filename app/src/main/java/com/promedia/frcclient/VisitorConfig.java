@@ -0,0 +1,29 @@
+package com.promedia.frcclient;
+
+/**
+ * One visitor section ({@code role = visitor} in frpc.ini, [[visitors]] in frpc.toml): a local
+ * listener whose connections are forwarded through the server to the stcp proxy server_name
+ * on another client, authenticated with the secret key both sides share.
+ */
+final class VisitorConfig {
+
+    static final String TYPE_STCP = "stcp";
+
+    final String name;
+    final String serverName; // Name of the stcp proxy to visit
+    final String secretKey;  // sk; must match the proxy's
+    final String bindAddr;
+    final int bindPort;
+
+    VisitorConfig(String name, String serverName, String secretKey, String bindAddr, int bindPort) {
+        this.name = name;
+        this.serverName = serverName;
+        this.secretKey = secretKey;
+        this.bindAddr = bindAddr;
+        this.bindPort = bindPort;
+    }
+
+    String bindAddress() {
+        return bindAddr + ":" + bindPort;
+    }
+}
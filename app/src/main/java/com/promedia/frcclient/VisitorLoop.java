@@ -0,0 +1,379 @@
+package com.promedia.frcclient;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop shared by the visitors of every client: one thread accepts on every visitor
+ * listener and relays every visitor connection once its server side has been set up.
+ *
+ * A relay is two pipes with one buffer each. A pipe reads from its source only while its buffer
+ * has room, so a slow receiver stops reads from the sender instead of growing memory. The
+ * buffers come from the shared BufferPool and are charged to the relay MemoryBudget.
+ *
+ * Listeners are keyed by bind address. During a network handover the new session's visitor
+ * takes over the listener of the old one, so the local port never closes.
+ */
+final class VisitorLoop {
+
+    private static final String TAG = "FRPClient_VisitorLoop";
+    private static final int RELAY_BUFFER_SIZE = 16 * 1024;
+
+    private final Selector selector;
+    private final BufferPool buffers;
+    private final MemoryBudget budget;
+    private final EventLog eventLog;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<String, Listener> listeners = new HashMap<>(); // Guarded by itself
+    private final Thread thread;
+    private volatile boolean shutdown = false;
+
+    private static final class Listener {
+        final ServerSocketChannel channel;
+        volatile StcpVisitor owner;
+
+        Listener(ServerSocketChannel channel, StcpVisitor owner) {
+            this.channel = channel;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * One direction of a relay. The buffer is kept in fill mode between events.
+     */
+    private static final class Pipe {
+        final SocketChannel source;
+        final SocketChannel sink;
+        final byte[] array;
+        final ByteBuffer buffer;
+        long bytes = 0;
+        boolean eof = false;  // Source finished
+        boolean done = false; // Everything written and the sink's output shut down
+
+        Pipe(SocketChannel source, SocketChannel sink, byte[] array) {
+            this.source = source;
+            this.sink = sink;
+            this.array = array;
+            this.buffer = ByteBuffer.wrap(array);
+        }
+
+        void pump() throws IOException {
+            if (!eof && buffer.hasRemaining() && source.read(buffer) < 0) {
+                eof = true;
+            }
+            if (buffer.position() > 0) {
+                buffer.flip();
+                bytes += sink.write(buffer);
+                buffer.compact();
+            }
+            if (eof && !done && buffer.position() == 0) {
+                // Half-close, so the other direction can still finish
+                sink.socket().shutdownOutput();
+                done = true;
+            }
+        }
+
+        boolean wantsRead() {
+            return !eof && buffer.hasRemaining();
+        }
+
+        boolean hasPending() {
+            return buffer.position() > 0;
+        }
+    }
+
+    private final class Relay {
+        final SocketChannel local;
+        final SocketChannel server;
+        final Pipe up;   // Local client -> server
+        final Pipe down; // Server -> local client
+        final int sessionId;
+        final int row;
+        SelectionKey localKey;
+        SelectionKey serverKey;
+        boolean closed = false;
+
+        Relay(SocketChannel local, SocketChannel server, int sessionId, int row) {
+            this.local = local;
+            this.server = server;
+            this.up = new Pipe(local, server, buffers.acquire(RELAY_BUFFER_SIZE));
+            this.down = new Pipe(server, local, buffers.acquire(RELAY_BUFFER_SIZE));
+            this.sessionId = sessionId;
+            this.row = row;
+        }
+
+        void onReady() {
+            try {
+                up.pump();
+                down.pump();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (up.done && down.done) {
+                close();
+                return;
+            }
+            localKey.interestOps((up.wantsRead() ? SelectionKey.OP_READ : 0)
+                    | (down.hasPending() ? SelectionKey.OP_WRITE : 0));
+            serverKey.interestOps((down.wantsRead() ? SelectionKey.OP_READ : 0)
+                    | (up.hasPending() ? SelectionKey.OP_WRITE : 0));
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly(local);
+            closeQuietly(server);
+            eventLog.record(EventLog.EVENT_RELAY_END, sessionId, row, up.bytes, 1);
+            eventLog.record(EventLog.EVENT_RELAY_END, sessionId, row, down.bytes, 0);
+            buffers.release(up.array);
+            buffers.release(down.array);
+            budget.release(2 * RELAY_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * A relay waiting for the loop thread. Until it runs it holds the two channels and its share
+     * of the budget; abandon() gives them up if the loop stops first.
+     */
+    private final class PendingRelay implements Runnable {
+        final SocketChannel local;
+        final SocketChannel server;
+        final int sessionId;
+        final int row;
+
+        PendingRelay(SocketChannel local, SocketChannel server, int sessionId, int row) {
+            this.local = local;
+            this.server = server;
+            this.sessionId = sessionId;
+            this.row = row;
+        }
+
+        @Override
+        public void run() {
+            Relay relay = new Relay(local, server, sessionId, row);
+            try {
+                local.configureBlocking(false);
+                server.configureBlocking(false);
+                relay.localKey = local.register(selector, SelectionKey.OP_READ, relay);
+                relay.serverKey = server.register(selector, SelectionKey.OP_READ, relay);
+            } catch (IOException e) {
+                relay.close();
+                return;
+            }
+            // The server may already have sent data along with its handshake reply
+            relay.onReady();
+        }
+
+        void abandon() {
+            closeQuietly(local);
+            closeQuietly(server);
+            budget.release(2 * RELAY_BUFFER_SIZE);
+        }
+    }
+
+    VisitorLoop(BufferPool buffers, MemoryBudget budget, EventLog eventLog) throws IOException {
+        this.selector = Selector.open();
+        this.buffers = buffers;
+        this.budget = budget;
+        this.eventLog = eventLog;
+        this.thread = new Thread(this::loop, "FRPClient-Visitor");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts accepting for the visitor on its bind address. If a visitor of the same config
+     * already listens there, e.g. the one of the session being handed over from, this visitor
+     * takes the listener over.
+     */
+    void listen(StcpVisitor visitor) throws IOException {
+        VisitorConfig config = visitor.config();
+        String key = config.bindAddress();
+        synchronized (listeners) {
+            // Checked under the lock, so the loop's final cleanup cannot miss this listener
+            if (shutdown) {
+                throw new IOException("Visitor loop stopped.");
+            }
+            Listener existing = listeners.get(key);
+            if (existing != null) {
+                if (existing.owner.config() != config) {
+                    throw new BindException(key + " is already used by visitor " + existing.owner.config().name);
+                }
+                existing.owner = visitor;
+                return;
+            }
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                channel.socket().setReuseAddress(true);
+                channel.socket().bind(new InetSocketAddress(InetAddress.getByName(config.bindAddr), config.bindPort));
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            Listener listener = new Listener(channel, visitor);
+            listeners.put(key, listener);
+            submit(() -> {
+                try {
+                    channel.register(selector, SelectionKey.OP_ACCEPT, listener);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot accept on " + key + ": " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the visitor's listener, unless another visitor has taken it over. Connections
+     * already accepted keep relaying.
+     */
+    void unlisten(StcpVisitor visitor) {
+        String key = visitor.config().bindAddress();
+        synchronized (listeners) {
+            Listener listener = listeners.get(key);
+            if (listener != null && listener.owner == visitor) {
+                listeners.remove(key);
+                closeQuietly(listener.channel);
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Relays between an accepted local connection and a server connection that has completed
+     * its handshake. Both channels are closed when the relay ends, or right away if the relay
+     * memory budget is exhausted; returns false in that case.
+     */
+    boolean relay(SocketChannel local, SocketChannel server, int sessionId, int row) {
+        if (shutdown) {
+            closeQuietly(local);
+            closeQuietly(server);
+            return false;
+        }
+        if (!budget.tryAdmit(2 * RELAY_BUFFER_SIZE)) {
+            eventLog.record(EventLog.EVENT_WORK_REFUSED, sessionId, row, budget.usedBytes(), budget.limitBytes());
+            closeQuietly(local);
+            closeQuietly(server);
+            return false;
+        }
+        submit(new PendingRelay(local, server, sessionId, row));
+        return true;
+    }
+
+    /**
+     * Stops the loop, closing every listener and relay.
+     */
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+        if (shutdown) {
+            // The loop may have drained the queue before this task arrived
+            abandonPending();
+        }
+    }
+
+    /**
+     * Drops queued tasks once the loop has stopped, releasing what pending relays hold.
+     * Listener registrations need nothing: their channels are closed with the listeners.
+     */
+    private void abandonPending() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (task instanceof PendingRelay) {
+                ((PendingRelay) task).abandon();
+            }
+        }
+    }
+
+    private void loop() {
+        try {
+            while (!shutdown) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    Object attachment = key.attachment();
+                    if (attachment instanceof Listener) {
+                        accept((Listener) attachment);
+                    } else {
+                        ((Relay) attachment).onReady();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Visitor loop stopped: " + e.getMessage());
+        } finally {
+            shutdown = true;
+            abandonPending();
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Relay) {
+                    ((Relay) attachment).close();
+                } else {
+                    closeQuietly(key.channel());
+                }
+            }
+            synchronized (listeners) {
+                for (Listener listener : listeners.values()) {
+                    closeQuietly(listener.channel);
+                }
+                listeners.clear();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do here
+            }
+        }
+    }
+
+    private void accept(Listener listener) {
+        try {
+            SocketChannel local;
+            while ((local = listener.channel.accept()) != null) {
+                listener.owner.onAccepted(local);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Accept failed: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do here
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.promedia.frcclient;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves one NewWork request: dials a work connection to the server over the session's
+ * transport (TCP or KCP), announces which proxy it belongs to, connects to the local backend
+ * and relays bytes in both directions until either side closes.
+ *
+ * Each direction is a blocking read-then-write loop, so when the receiving side falls behind the
+ * write blocks and nothing more is read from the sending side. Memory per connection is bounded
+ * by the two relay buffers, which are charged to the process-wide MemoryBudget and returned to
+ * the shared BufferPool afterwards. Over KCP the session charges its own queues as well.
+ */
+class WorkConnection implements Runnable {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000; // 10 seconds
+
+    private final ServerTransport transport;
+    private final String serverAddr;
+    private final int serverPort;
+    private final String proxyName;
+    private final String localIp;
+    private final int localPort;
+    private final TransportProfile profile;
+    private final ProxyPlugin plugin; // Serves the proxy in-process instead of localIp:localPort
+    private final RttEstimator rtt;
+    private final MemoryBudget budget;
+    private final BufferPool buffers;
+    private final AtomicLong reservedBytes = new AtomicLong(); // Charged to budget, released on close
+    private final ExecutorService executor;
+    private final FRPClient.FRPClientListener listener;
+    private final WorkTraceRing traces;
+    private final long traceId;
+    private final EventLog eventLog;
+    private final int sessionId;
+    private final int proxyRow;
+
+    private TunnelConn workConn;
+    private Socket localSocket;
+
+    WorkConnection(ServerTransport transport, String serverAddr, int serverPort, String proxyName,
+                   String localIp, int localPort, TransportProfile profile, ProxyPlugin plugin, RttEstimator rtt,
+                   ClientRuntime runtime, FRPClient.FRPClientListener listener, WorkTraceRing traces, long traceId,
+                   int sessionId, int proxyRow) {
+        this.transport = transport;
+        this.serverAddr = serverAddr;
+        this.serverPort = serverPort;
+        this.proxyName = proxyName;
+        this.localIp = localIp;
+        this.localPort = localPort;
+        this.profile = profile;
+        this.plugin = plugin;
+        this.rtt = rtt;
+        this.budget = runtime.relayBudget();
+        this.buffers = runtime.bufferPool();
+        this.executor = runtime.ioExecutor();
+        this.listener = listener;
+        this.traces = traces;
+        this.traceId = traceId;
+        this.eventLog = runtime.eventLog();
+        this.sessionId = sessionId;
+        this.proxyRow = proxyRow;
+    }
+
+    @Override
+    public void run() {
+        // Each direction starts with one chunk buffer; refuse the connection if the process is out of budget
+        int initialWindow = 2 * profile.initialChunkSize;
+        if (!budget.tryAdmit(initialWindow)) {
+            listener.onLog("Relay memory budget exhausted, refusing work connection for [" + proxyName + "].");
+            traces.mark(traceId, WorkTraceRing.EVENT_CLOSED);
+            eventLog.record(EventLog.EVENT_WORK_REFUSED, sessionId, proxyRow, budget.usedBytes(), budget.limitBytes());
+            return;
+        }
+        reservedBytes.set(initialWindow);
+
+        try {
+            // Work connections follow the control connection's network; the backend is local
+            workConn = transport.dial(serverAddr, serverPort, CONNECT_TIMEOUT_MS);
+            traces.mark(traceId, WorkTraceRing.EVENT_WORK_DIALED);
+            workConn.applyProfile(profile);
+            sendNewWorkConn(workConn.getOutputStream());
+
+            InputStream workIn = workConn.getInputStream();
+            if (plugin != null) {
+                // Buffered so protocol parsing does not issue a read per byte; the relay keeps using it
+                workIn = new BufferedInputStream(workIn);
+                localSocket = plugin.handle(workConn, workIn);
+                if (localSocket == null) {
+                    // The plugin answered the request itself
+                    close();
+                    return;
+                }
+                profile.apply(localSocket);
+            } else {
+                localSocket = new Socket();
+                // Buffer sizes must be set before connect to affect the TCP window
+                profile.apply(localSocket);
+                localSocket.connect(new InetSocketAddress(localIp, localPort), CONNECT_TIMEOUT_MS);
+            }
+            traces.mark(traceId, WorkTraceRing.EVENT_BACKEND_CONNECTED);
+            eventLog.record(EventLog.EVENT_WORK_CONNECTED, sessionId, proxyRow, traceId, 0);
+
+            final InputStream serverIn = workIn;
+            final OutputStream workOut = workConn.getOutputStream();
+            final InputStream localIn = localSocket.getInputStream();
+            final OutputStream localOut = localSocket.getOutputStream();
+
+            // Backend -> server on a second thread, server -> backend on this one
+            executor.execute(() -> relay(localIn, workOut, WorkTraceRing.EVENT_FIRST_BYTE_TO_SERVER, 1));
+            relay(serverIn, localOut, WorkTraceRing.EVENT_FIRST_BYTE_TO_BACKEND, 0);
+        } catch (IOException e) {
+            listener.onLog("Work connection for [" + proxyName + "] failed: " + e.getMessage());
+            eventLog.recordText(EventLog.EVENT_WORK_FAILED, sessionId, proxyRow, traceId, 0, e.getMessage());
+            close();
+        } catch (JSONException e) {
+            listener.onError("Failed to create NewWorkConn JSON: " + e.getMessage());
+            close();
+        }
+    }
+
+    private void sendNewWorkConn(OutputStream out) throws IOException, JSONException {
+        JSONObject workMsg = new JSONObject();
+        workMsg.put("type", "NewWorkConn");
+        JSONObject content = new JSONObject();
+        content.put("proxy_name", proxyName);
+        workMsg.put("content", content);
+
+        out.write((workMsg.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void relay(InputStream in, OutputStream out, int firstByteEvent, int toServer) {
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(profile, rtt);
+        int chunkSize = sizer.chunkSize();
+        byte[] buffer = buffers.acquire(chunkSize);
+        boolean firstByteSeen = false;
+        long relayed = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer, 0, chunkSize)) != -1) {
+                if (!firstByteSeen) {
+                    traces.mark(traceId, firstByteEvent);
+                    firstByteSeen = true;
+                }
+                out.write(buffer, 0, read);
+                out.flush();
+                relayed += read;
+                chunkSize = sizer.onRelayed(read);
+                if (chunkSize > buffer.length) {
+                    // Only grows, so a fluctuating estimate does not churn; capped by the profile and the budget
+                    int growth = chunkSize - buffer.length;
+                    if (budget.tryGrow(growth)) {
+                        reservedBytes.addAndGet(growth);
+                        buffers.release(buffer);
+                        buffer = buffers.acquire(chunkSize);
+                    } else {
+                        chunkSize = buffer.length;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Expected when the opposite direction closes the sockets
+        } finally {
+            eventLog.record(EventLog.EVENT_RELAY_END, sessionId, proxyRow, relayed, toServer);
+            buffers.release(buffer);
+            close();
+        }
+    }
+
+    private synchronized void close() {
+        traces.mark(traceId, WorkTraceRing.EVENT_CLOSED);
+        budget.release(reservedBytes.getAndSet(0));
+        closeQuietly(workConn);
+        closeQuietly(localSocket);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do here
+            }
+        }
+    }
+}
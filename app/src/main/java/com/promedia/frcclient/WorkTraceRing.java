@@ -0,0 +1,132 @@
+package com.promedia.frcclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of latency traces, one per work connection.
+ *
+ * All storage is allocated up front; begin() and mark() only write into primitive arrays, so the
+ * relay path never allocates. Once the ring wraps, the oldest trace is overwritten. A mark for a
+ * trace whose slot has already been reused is dropped.
+ */
+final class WorkTraceRing {
+
+    static final int EVENT_NEW_WORK = 0;            // NewWork received on the control connection
+    static final int EVENT_WORK_DIALED = 1;         // Work connection to the server established
+    static final int EVENT_BACKEND_CONNECTED = 2;   // Local backend connected
+    static final int EVENT_FIRST_BYTE_TO_BACKEND = 3; // First byte relayed server -> backend
+    static final int EVENT_FIRST_BYTE_TO_SERVER = 4;  // First byte relayed backend -> server
+    static final int EVENT_CLOSED = 5;
+    static final int EVENT_COUNT = 6;
+
+    private static final String[] EVENT_NAMES = {
+            "new_work", "dialed", "backend", "first_to_backend", "first_to_server", "closed"
+    };
+
+    private final int capacity;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLongArray slotIds;   // Trace id currently stored in each slot, -1 if empty
+    private final int[] proxyRows;
+    private final AtomicLongArray times;     // EVENT_COUNT nanoTime stamps per slot, 0 if not reached
+
+    WorkTraceRing(int capacity) {
+        this.capacity = capacity;
+        this.slotIds = new AtomicLongArray(capacity);
+        this.proxyRows = new int[capacity];
+        this.times = new AtomicLongArray(capacity * EVENT_COUNT);
+        for (int i = 0; i < capacity; i++) {
+            slotIds.set(i, -1);
+        }
+    }
+
+    /**
+     * Starts a trace for the given proxy row, stamping EVENT_NEW_WORK, and returns its id.
+     */
+    long begin(int proxyRow) {
+        long id = nextId.getAndIncrement();
+        int slot = (int) (id % capacity);
+        slotIds.set(slot, -1); // Invalidate while the slot is being reset
+        int base = slot * EVENT_COUNT;
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            times.set(base + event, 0);
+        }
+        proxyRows[slot] = proxyRow;
+        times.set(base + EVENT_NEW_WORK, System.nanoTime());
+        slotIds.set(slot, id);
+        return id;
+    }
+
+    /**
+     * Records the first occurrence of an event for the trace. Later marks of the same event are ignored.
+     */
+    void mark(long id, int event) {
+        int slot = (int) (id % capacity);
+        if (slotIds.get(slot) != id) {
+            return;
+        }
+        times.compareAndSet(slot * EVENT_COUNT + event, 0, System.nanoTime());
+    }
+
+    /**
+     * Copies the traces currently held in the ring, oldest first. Allocates; not for the hot path.
+     */
+    List<Record> snapshot(ProxyTable proxies) {
+        List<Record> records = new ArrayList<>(capacity);
+        long newest = nextId.get();
+        for (long id = Math.max(0, newest - capacity); id < newest; id++) {
+            int slot = (int) (id % capacity);
+            if (slotIds.get(slot) != id) {
+                continue;
+            }
+            int base = slot * EVENT_COUNT;
+            long start = times.get(base + EVENT_NEW_WORK);
+            long[] offsetsMicros = new long[EVENT_COUNT];
+            for (int event = 0; event < EVENT_COUNT; event++) {
+                long stamp = times.get(base + event);
+                offsetsMicros[event] = stamp == 0 ? -1 : (stamp - start) / 1000;
+            }
+            int row = proxyRows[slot];
+            String proxyName = row >= 0 && row < proxies.size() ? proxies.name(row) : "?";
+            records.add(new Record(id, proxyName, offsetsMicros));
+        }
+        return records;
+    }
+
+    /**
+     * One exported trace. Offsets are microseconds since NewWork was received, -1 if the event
+     * never happened.
+     */
+    static final class Record {
+        final long id;
+        final String proxyName;
+        private final long[] offsetsMicros;
+
+        Record(long id, String proxyName, long[] offsetsMicros) {
+            this.id = id;
+            this.proxyName = proxyName;
+            this.offsetsMicros = offsetsMicros;
+        }
+
+        long offsetMicros(int event) {
+            return offsetsMicros[event];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("trace #").append(id).append(" [").append(proxyName).append("]");
+            for (int event = 1; event < EVENT_COUNT; event++) {
+                sb.append(' ').append(EVENT_NAMES[event]).append('=');
+                if (offsetsMicros[event] < 0) {
+                    sb.append('-');
+                } else {
+                    sb.append(offsetsMicros[event]).append("us");
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.promedia.frcclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void sizesRoundUpToTheirClass() {
+        BufferPool pool = new BufferPool();
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(256 * 1024, pool.acquire(200 * 1024).length);
+        assertEquals(256 * 1024 + 1, pool.acquire(256 * 1024 + 1).length); // Above the largest class
+    }
+
+    @Test
+    public void releasedBuffersAreReusedWithinTheirClass() {
+        BufferPool pool = new BufferPool();
+        byte[] small = pool.acquire(5000);
+        byte[] large = pool.acquire(100 * 1024);
+        pool.release(small);
+        pool.release(large);
+        assertTrue(pool.acquire(8000) == small);
+        assertTrue(pool.acquire(128 * 1024) == large);
+        assertFalse(pool.acquire(8000) == small); // Handed out already
+    }
+
+    @Test
+    public void oddSizedAndOversizedBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool();
+        byte[] odd = new byte[5000];
+        byte[] huge = new byte[512 * 1024];
+        pool.release(odd);
+        pool.release(huge);
+        assertFalse(pool.acquire(5000) == odd);
+        assertFalse(pool.acquire(512 * 1024) == huge);
+    }
+
+    @Test
+    public void idleBuffersPerClassAreCapped() {
+        BufferPool pool = new BufferPool();
+        // 1 MiB per class: four 256 KiB buffers are kept, the fifth is left to the GC
+        byte[][] buffers = new byte[5][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(256 * 1024);
+        }
+        for (byte[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        int reused = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            byte[] buffer = pool.acquire(256 * 1024);
+            for (byte[] released : buffers) {
+                if (buffer == released) {
+                    reused++;
+                }
+            }
+        }
+        assertEquals(4, reused);
+    }
+}
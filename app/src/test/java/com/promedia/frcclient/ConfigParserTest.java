@@ -0,0 +1,342 @@
+package com.promedia.frcclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigParserTest {
+
+    private static final String INI_COMMON = "[common]\nserver_addr = frp.example.com\nserver_port = 7000\n";
+    private static final String TOML_COMMON = "serverAddr = \"frp.example.com\"\nserverPort = 7000\n";
+
+    private static ValidationReport.Issue issue(ClientConfig config, String text) {
+        for (ValidationReport.Issue issue : config.report().issues()) {
+            if (issue.message.contains(text)) {
+                return issue;
+            }
+        }
+        fail("No issue containing \"" + text + "\" in:\n" + config.report());
+        return null;
+    }
+
+    @Test
+    public void parsesIni() {
+        ClientConfig config = ClientConfig.parse("# frpc.ini\n"
+                + INI_COMMON
+                + "token = secret\n"
+                + "\n"
+                + "[ssh]\n"
+                + "type = tcp\n"
+                + "local_port = 22\n"
+                + "remote_port = 6022\n"
+                + "\n"
+                + "[web]\n"
+                + "type = tcp\n"
+                + "local_ip = 192.168.1.10\n"
+                + "local_port = 80\n"
+                + "remote_port = 6080\n"
+                + "transport_profile = bulk\n");
+
+        assertEquals(ConfigParser.Format.INI, config.format());
+        assertEquals(config.report().toString(), 0, config.report().issues().size());
+        assertTrue(config.isUsable());
+        assertEquals("frp.example.com", config.serverAddr());
+        assertEquals(7000, config.serverPort());
+        assertEquals("secret", config.token());
+        assertEquals("tcp", config.protocol());
+        assertNull(config.kcpOptions());
+
+        ProxyTable proxies = config.proxies();
+        assertEquals(2, proxies.size());
+        assertEquals("ssh", proxies.name(0));
+        assertEquals(ConfigParser.DEFAULT_LOCAL_IP, proxies.localIp(0));
+        assertEquals(22, proxies.localPort(0));
+        assertEquals(6022, proxies.remotePort(0));
+        assertEquals(TransportProfile.INTERACTIVE, proxies.profile(0));
+        assertEquals("192.168.1.10", proxies.localIp(1));
+        assertEquals(TransportProfile.BULK, proxies.profile(1));
+    }
+
+    @Test
+    public void parsesTomlWithKeysMappedOntoIniNames() {
+        ClientConfig config = ClientConfig.parse("# frpc.toml\n"
+                + TOML_COMMON
+                + "\n"
+                + "[auth]\n"
+                + "token = \"secret\"\n"
+                + "\n"
+                + "[transport]\n"
+                + "protocol = \"kcp\"\n"
+                + "kcp.sndWnd = 256 # segments\n"
+                + "\n"
+                + "[[proxies]]\n"
+                + "name = \"web\"\n"
+                + "type = \"tcp\"\n"
+                + "localIP = \"192.168.1.10\"\n"
+                + "localPort = 80\n"
+                + "remotePort = 6_080\n"
+                + "transportProfile = \"bulk\"\n"
+                + "\n"
+                + "[[proxies]]\n"
+                + "name = \"socks\"\n"
+                + "type = \"tcp\"\n"
+                + "remotePort = 6090\n"
+                + "[proxies.plugin]\n"
+                + "type = \"socks5\"\n"
+                + "username = \"user\"\n"
+                + "\n"
+                + "[[visitors]]\n"
+                + "name = \"db\"\n"
+                + "type = \"stcp\"\n"
+                + "serverName = \"db_proxy\"\n"
+                + "secretKey = \"key\"\n"
+                + "bindPort = 5432\n");
+
+        assertEquals(ConfigParser.Format.TOML, config.format());
+        assertEquals(config.report().toString(), 0, config.report().issues().size());
+        assertEquals("frp.example.com", config.serverAddr());
+        assertEquals(7000, config.serverPort());
+        assertEquals("secret", config.token());
+        assertEquals("kcp", config.protocol());
+        assertNotNull(config.kcpOptions());
+
+        ProxyTable proxies = config.proxies();
+        assertEquals(2, proxies.size());
+        assertEquals("web", proxies.name(0));
+        assertEquals("192.168.1.10", proxies.localIp(0));
+        assertEquals(80, proxies.localPort(0));
+        assertEquals(6080, proxies.remotePort(0));
+        assertEquals(TransportProfile.BULK, proxies.profile(0));
+        assertNull(proxies.plugin(0));
+        assertEquals("socks", proxies.name(1));
+        assertEquals(6090, proxies.remotePort(1));
+        assertTrue(proxies.plugin(1) instanceof Socks5Plugin);
+
+        assertEquals(1, config.visitors().size());
+        VisitorConfig visitor = config.visitors().get(0);
+        assertEquals("db", visitor.name);
+        assertEquals("db_proxy", visitor.serverName);
+        assertEquals("key", visitor.secretKey);
+        assertEquals("127.0.0.1:5432", visitor.bindAddress());
+    }
+
+    @Test
+    public void unknownTomlKeyIsReportedWithItsTomlName() {
+        ClientConfig config = ClientConfig.parse(TOML_COMMON
+                + "[[proxies]]\nname = \"web\"\ntype = \"tcp\"\nlocal_port = 80\nlocalPort = 80\nremotePort = 6080\n");
+        ValidationReport.Issue unknown = issue(config, "Unknown key ignored: local_port");
+        assertEquals(ValidationReport.Severity.WARNING, unknown.severity);
+        assertEquals(6, unknown.line);
+        assertEquals("web", unknown.section);
+        assertEquals(1, config.proxies().size());
+    }
+
+    @Test
+    public void iniRangeSectionExpandsToNumberedProxies() {
+        ClientConfig config = ClientConfig.parse(INI_COMMON
+                + "[range:game]\n"
+                + "type = tcp\n"
+                + "local_port = 6000-6002,6010\n"
+                + "remote_port = 7000-7003\n");
+
+        assertEquals(config.report().toString(), 0, config.report().issues().size());
+        ProxyTable proxies = config.proxies();
+        assertEquals(4, proxies.size());
+        int[] local = {6000, 6001, 6002, 6010};
+        for (int i = 0; i < local.length; i++) {
+            assertEquals("game_" + i, proxies.name(i));
+            assertEquals(local[i], proxies.localPort(i));
+            assertEquals(7000 + i, proxies.remotePort(i));
+        }
+    }
+
+    @Test
+    public void tomlPortListsExpandToNumberedProxies() {
+        ClientConfig config = ClientConfig.parse(TOML_COMMON
+                + "[[proxies]]\n"
+                + "name = \"game\"\n"
+                + "type = \"tcp\"\n"
+                + "localPort = \"6000-6001\"\n"
+                + "remotePort = \"7000,7005\"\n");
+
+        assertEquals(config.report().toString(), 0, config.report().issues().size());
+        ProxyTable proxies = config.proxies();
+        assertEquals(2, proxies.size());
+        assertEquals("game_0", proxies.name(0));
+        assertEquals(6000, proxies.localPort(0));
+        assertEquals(7000, proxies.remotePort(0));
+        assertEquals("game_1", proxies.name(1));
+        assertEquals(6001, proxies.localPort(1));
+        assertEquals(7005, proxies.remotePort(1));
+    }
+
+    @Test
+    public void portRangeParsing() {
+        assertEquals(3, ConfigParser.parsePortRange(" 1 - 3 ").length);
+        assertEquals(65535, ConfigParser.parsePortRange("65535")[0]);
+        String[] invalid = {"0-2", "5-4", "65530-65536", "a-b", ""};
+        for (String value : invalid) {
+            try {
+                ConfigParser.parsePortRange(value);
+                fail("Accepted " + value);
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void rangeSizeMismatchSkipsTheSection() {
+        ClientConfig config = ClientConfig.parse(INI_COMMON
+                + "[range:game]\ntype = tcp\nlocal_port = 6000-6002\nremote_port = 7000-7001\n");
+        ValidationReport.Issue mismatch = issue(config, "Port range size mismatch: 3 local vs 2 remote ports");
+        assertEquals(ValidationReport.Severity.ERROR, mismatch.severity);
+        assertEquals(4, mismatch.line);
+        assertEquals("game", mismatch.section);
+        assertEquals(0, config.proxies().size());
+    }
+
+    @Test
+    public void duplicateNamesKeepTheFirstProxy() {
+        ClientConfig config = ClientConfig.parse(INI_COMMON
+                + "[web]\ntype = tcp\nlocal_port = 80\nremote_port = 6080\n"
+                + "[web]\ntype = tcp\nlocal_port = 81\nremote_port = 6081\n"
+                // game_0 collides with the expansion of the range below
+                + "[game_0]\ntype = tcp\nlocal_port = 90\nremote_port = 6090\n"
+                + "[range:game]\ntype = tcp\nlocal_port = 6000-6001\nremote_port = 7000-7001\n");
+
+        ValidationReport.Issue duplicate = issue(config, "Duplicate proxy name");
+        assertEquals(ValidationReport.Severity.ERROR, duplicate.severity);
+        assertEquals(8, duplicate.line);
+        assertEquals("web", duplicate.section);
+        assertEquals("Line 8 [web] Duplicate proxy name; proxy skipped.", duplicate.toString());
+        assertEquals(2, config.report().errorCount());
+
+        ProxyTable proxies = config.proxies();
+        assertEquals(3, proxies.size());
+        assertEquals(80, proxies.localPort(proxies.indexOf("web")));
+        assertEquals(90, proxies.localPort(proxies.indexOf("game_0")));
+        assertEquals(6001, proxies.localPort(proxies.indexOf("game_1")));
+    }
+
+    @Test
+    public void badPortsSkipTheProxyAndKeepTheRest() {
+        ClientConfig config = ClientConfig.parse(INI_COMMON
+                + "[zero]\ntype = tcp\nlocal_port = 0\nremote_port = 6000\n"
+                + "[high]\ntype = tcp\nlocal_port = 80\nremote_port = 70000\n"
+                + "[text]\ntype = tcp\nlocal_port = http\nremote_port = 6001\n"
+                + "[ok]\ntype = tcp\nlocal_port = 22\nremote_port = 6022\n");
+
+        assertEquals(config.report().toString(), 3, config.report().errorCount());
+        ValidationReport.Issue zero = issue(config, "Invalid local_port 0");
+        assertEquals(6, zero.line);
+        assertEquals("zero", zero.section);
+        assertEquals(11, issue(config, "Invalid remote_port 70000").line);
+        assertEquals(14, issue(config, "Invalid local_port http").line);
+        assertEquals(1, config.proxies().size());
+        assertEquals("ok", config.proxies().name(0));
+    }
+
+    @Test
+    public void missingRequiredKeysAreReported() {
+        ClientConfig config = ClientConfig.parse("[common]\nserver_addr =\n"
+                + "[notype]\nlocal_port = 80\nremote_port = 6080\n"
+                + "[noremote]\ntype = tcp\nlocal_port = 80\n"
+                + "[udp]\ntype = udp\nlocal_port = 53\nremote_port = 6053\n");
+
+        assertFalse(config.isUsable());
+        assertNull(config.serverAddr());
+        assertEquals(0, config.serverPort());
+        ValidationReport report = config.report();
+        assertEquals(report.toString(), 4, report.errorCount());
+        assertEquals(2, issue(config, "server_addr is missing in [common].").line);
+        assertEquals(0, issue(config, "server_port is missing in [common].").line);
+        assertEquals("notype", issue(config, "type is missing; proxy skipped.").section);
+        assertEquals(6, issue(config, "remote_port is missing; proxy skipped.").line);
+
+        ValidationReport.Issue unsupported = issue(config, "Proxy type udp is not supported");
+        assertEquals(ValidationReport.Severity.WARNING, unsupported.severity);
+        assertEquals(10, unsupported.line);
+        assertEquals(1, report.warningCount());
+        assertEquals(0, config.proxies().size());
+        assertTrue(report.toString(), report.toString().startsWith("error: Line 3 [notype] type is missing"));
+    }
+
+    @Test
+    public void tomlMissingKeysUseTomlNames() {
+        ClientConfig config = ClientConfig.parse("[[proxies]]\ntype = \"tcp\"\nlocalPort = 80\n");
+        assertEquals(ConfigParser.Format.TOML, config.format());
+        assertEquals(1, issue(config, "Proxy without a name skipped.").line);
+        issue(config, "serverAddr is missing.");
+        issue(config, "serverPort is missing.");
+    }
+
+    @Test
+    public void commentsAndBlankLinesDoNotDecideTheFormat() {
+        ClientConfig ini = ClientConfig.parse("\n  \n; frpc.ini\n# generated\n" + INI_COMMON);
+        assertEquals(ConfigParser.Format.INI, ini.format());
+        assertTrue(ini.report().toString(), ini.isUsable());
+
+        ClientConfig toml = ClientConfig.parse("\n# frpc.toml\n\n" + TOML_COMMON);
+        assertEquals(ConfigParser.Format.TOML, toml.format());
+        assertTrue(toml.report().toString(), toml.isUsable());
+    }
+
+    @Test
+    public void keyBeforeAnySectionDecidesByItsNameAndValue() {
+        // INI names and unquoted text are INI; the key itself is outside any section
+        String[] ini = {"server_addr = frp.example.com", "user = alice", "log_file ="};
+        for (String line : ini) {
+            ClientConfig config = ClientConfig.parse(line + "\n" + INI_COMMON);
+            assertEquals(line, ConfigParser.Format.INI, config.format());
+            assertTrue(config.report().toString(), config.isUsable());
+            assertEquals(1, issue(config, "Key outside of any section ignored").line);
+        }
+
+        String[] toml = {"serverAddr = frp.example.com", "user = \"alice\"", "loginFailExit = false",
+                "log.level = info", "webServer.port = 7400"};
+        for (String line : toml) {
+            assertEquals(line, ConfigParser.Format.TOML, ClientConfig.parse(line + "\n").format());
+        }
+    }
+
+    @Test
+    public void emptyConfigIsReportedAsIni() {
+        ClientConfig config = ClientConfig.parse("# nothing yet\n");
+        assertEquals(ConfigParser.Format.INI, config.format());
+        assertFalse(config.isUsable());
+        assertEquals(2, config.report().errorCount());
+    }
+
+    @Test
+    public void largeGeneratedConfigParsesQuickly() {
+        // 5000 sections plus a range of 5000 ports, one proxy each
+        StringBuilder text = new StringBuilder(INI_COMMON);
+        for (int i = 0; i < 5000; i++) {
+            text.append("\n[proxy_").append(i).append("]\ntype = tcp\nlocal_ip = 10.0.")
+                    .append(i / 250).append('.').append(i % 250 + 1)
+                    .append("\nlocal_port = 8080\nremote_port = ").append(10000 + i).append('\n');
+        }
+        text.append("\n[range:bulk]\ntype = tcp\nlocal_port = 20000-24999\nremote_port = 30000-34999\n");
+        String content = text.toString();
+
+        ClientConfig.parse(content); // Warm up
+        long start = System.nanoTime();
+        ClientConfig config = ClientConfig.parse(content);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(config.report().toString(), 0, config.report().issues().size());
+        ProxyTable proxies = config.proxies();
+        assertEquals(10000, proxies.size());
+        assertEquals(14999, proxies.remotePort(proxies.indexOf("proxy_4999")));
+        assertEquals("10.0.19.250", proxies.localIp(proxies.indexOf("proxy_4999")));
+        assertEquals(24999, proxies.localPort(proxies.indexOf("bulk_4999")));
+        // Milliseconds on a desktop JVM; the bound only catches a regression to quadratic work
+        assertTrue("Parsing 10000 proxies took " + elapsedMs + " ms", elapsedMs < 1000);
+    }
+}
@@ -0,0 +1,152 @@
+package com.promedia.frcclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventLogTest {
+
+    private static final int CAPACITY = 64;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("events", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void deferredLogDropsRecordsUntilMapped() throws IOException {
+        EventLog log = EventLog.deferred();
+        log.record(EventLog.EVENT_CONNECTED, 1, EventLog.NO_PROXY, 5, 0);
+        log.recordText(EventLog.EVENT_DISCONNECTED, 1, EventLog.NO_PROXY, 0, 0, "dropped");
+        log.map(file, CAPACITY);
+        log.record(EventLog.EVENT_CONNECTED, 1, EventLog.NO_PROXY, 7, 0);
+
+        MappedByteBuffer records = mapFile();
+        int first = EventLog.HEADER_SIZE;
+        assertEquals(1, records.getLong(first + EventLog.OFFSET_SEQ));
+        assertEquals(7, records.getLong(first + EventLog.OFFSET_ARG0));
+        assertEquals(0, records.getLong(first + EventLog.RECORD_SIZE + EventLog.OFFSET_SEQ));
+    }
+
+    @Test
+    public void sessionIdsContinueAfterTheFileAndEarlierIds() throws IOException {
+        EventLog previous = EventLog.open(file, CAPACITY);
+        for (int i = 0; i < 3; i++) {
+            previous.record(EventLog.EVENT_SESSION_START, previous.newSession(), EventLog.NO_PROXY, 0, 0);
+        }
+
+        EventLog log = EventLog.deferred();
+        int early = log.newSession(); // Handed out before the file has been scanned
+        log.map(file, CAPACITY);
+        int next = log.newSession();
+        assertEquals(1, early);
+        assertEquals(5, next); // After the file's newest (3), skipping the one already handed out
+    }
+
+    @Test
+    public void awaitReadyReturnsOnceMapped() throws Exception {
+        EventLog log = EventLog.deferred();
+        Thread opener = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                log.map(file, CAPACITY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        opener.start();
+        long start = System.nanoTime();
+        log.awaitReady(5000);
+        assertTrue((System.nanoTime() - start) / 1000000L < 4000);
+        log.record(EventLog.EVENT_CONNECTED, 1, EventLog.NO_PROXY, 9, 0);
+        assertEquals(9, mapFile().getLong(EventLog.HEADER_SIZE + EventLog.OFFSET_ARG0));
+        opener.join();
+    }
+
+    @Test
+    public void textRoundTripsThroughTheDecoder() throws IOException {
+        String reason = "Verbindung verloren: Zeitüberschreitung nach 90 s"; // Multi-byte characters span chunks
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            longText.append("0123456789");
+        }
+        EventLog log = EventLog.open(file, CAPACITY);
+        log.recordText(EventLog.EVENT_PROXY_NAME, 3, 0, 0, 0, "web");
+        log.recordText(EventLog.EVENT_DISCONNECTED, 3, EventLog.NO_PROXY, 0, 0, reason);
+        log.record(EventLog.EVENT_WORK_REQUESTED, 3, 0, 42, 0);
+        log.recordText(EventLog.EVENT_CONNECTING, 3, EventLog.NO_PROXY, 0, 0, "exactly16bytes!!");
+        log.recordText(EventLog.EVENT_PROXY_FAILED, 3, 0, 0, 0, "");
+        log.recordText(EventLog.EVENT_WORK_FAILED, 3, 0, 7, 0, longText.toString());
+
+        List<EventLogDecoder.Record> records = EventLogDecoder.read(file.getPath());
+        assertEquals(6, records.size());
+        assertEquals("web", records.get(0).text);
+        assertEquals(reason, records.get(1).text);
+        assertNull(records.get(2).text);
+        assertEquals(42, records.get(2).arg0);
+        assertEquals("exactly16bytes!!", records.get(3).text);
+        assertNull(records.get(4).text); // No continuation records at all
+        assertEquals(longText.substring(0, 8 * EventLog.TEXT_BYTES_PER_RECORD), records.get(5).text); // Truncated
+        assertEquals(7, records.get(5).arg0);
+
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        EventLogDecoder.print(records, new PrintStream(printed, true, "UTF-8"));
+        String text = new String(printed.toByteArray(), StandardCharsets.UTF_8);
+        assertFalse(text, text.contains("proxy_name")); // Folded into the events that use the name
+        assertTrue(text, text.contains(" disconnected \"" + reason + "\""));
+        assertTrue(text, text.contains(" work_requested [web] trace=42"));
+    }
+
+    @Test
+    public void continuationsOfAnOverwrittenEventAreDropped() throws IOException {
+        EventLog log = EventLog.open(file, 8);
+        log.recordText(EventLog.EVENT_DISCONNECTED, 1, EventLog.NO_PROXY, 0, 0,
+                "first chunk.....second chunk....third"); // Records 1-4
+        for (int i = 0; i < 5; i++) {
+            log.record(EventLog.EVENT_PING_RTT, 1, EventLog.NO_PROXY, i, i); // 5-9; 9 takes the event's slot
+        }
+        log.recordText(EventLog.EVENT_NETWORK_LOST, 1, EventLog.NO_PROXY, 0, 0, "wifi"); // 10-11
+
+        List<EventLogDecoder.Record> records = EventLogDecoder.read(file.getPath());
+        // 9-11 overwrote 1-3; record 4, the last chunk, is still in the ring but belongs to nothing
+        assertEquals(6, records.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(EventLog.EVENT_PING_RTT, records.get(i).code);
+            assertEquals(5 + i, records.get(i).seq);
+            assertNull(records.get(i).text);
+        }
+        assertEquals("wifi", records.get(5).text);
+    }
+
+    private MappedByteBuffer mapFile() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.promedia.frcclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FRPClientTest {
+
+    private static final String LOGIN_RESP = "{\"type\":\"LoginResp\",\"content\":{\"run_id\":\"r1\"}}\n";
+
+    private ServerSocket server;
+    private ClientRuntime runtime;
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(5000);
+        runtime = new ClientRuntime(MemoryBudget.forHeap(64L * 1024 * 1024), EventLog.DISABLED);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runtime.shutdown();
+        server.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void serverCloseIsReportedAsDisconnect() throws Exception {
+        Recorder recorder = new Recorder();
+        FRPClient client = newClient(config(""), recorder);
+        client.connect();
+        try (Socket control = server.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(in.readLine().contains("\"Login\""));
+            // onConnected waits for the server to accept the login
+            assertFalse(recorder.connected.await(200, TimeUnit.MILLISECONDS));
+            OutputStream out = control.getOutputStream();
+            out.write(LOGIN_RESP.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+        } // Clean close: the client reads end of stream, not an error
+
+        assertTrue(recorder.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals("disconnected: Server closed the connection.", recorder.events.get(recorder.events.size() - 1));
+        assertFalse(client.isConnected());
+        assertTrue(client.isClosed());
+    }
+
+    @Test
+    public void registrationIsPipelinedWithLoginInOneFlush() throws Exception {
+        Recorder recorder = new Recorder();
+        FRPClient client = newClient(config("\n[web]\ntype = tcp\nlocal_port = 80\nremote_port = 8080\n"
+                + "\n[range:game]\ntype = tcp\nlocal_port = 7000-7001\nremote_port = 9000-9001\n"), recorder);
+        client.connect();
+        try (Socket control = server.accept()) {
+            // Nothing is answered yet, so every NewProxy has to arrive without waiting for LoginResp,
+            // and in the same write as the Login: the first read returns all of it
+            control.setSoTimeout(5000);
+            byte[] buffer = new byte[8192];
+            int read = control.getInputStream().read(buffer);
+            String[] lines = new String(buffer, 0, read, StandardCharsets.UTF_8).split("\n");
+            assertEquals(4, lines.length);
+            assertTrue(lines[0], lines[0].contains("\"type\":\"Login\""));
+            for (int i = 1; i < lines.length; i++) {
+                assertTrue(lines[i], lines[i].contains("\"type\":\"NewProxy\""));
+            }
+            assertTrue(lines[1], lines[1].contains("\"proxy_name\":\"web\""));
+            assertTrue(lines[3], lines[3].contains("\"remote_port\":9001"));
+
+            OutputStream out = control.getOutputStream();
+            out.write((LOGIN_RESP
+                    + "{\"type\":\"NewProxyResp\",\"content\":{\"proxy_name\":\"web\",\"remote_addr\":\":8080\"}}\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (recorder.count("registered: web") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, recorder.count("registered: web"));
+            client.disconnect("Done");
+        }
+        // Proxies still waiting for a response are reported as failed
+        assertEquals(2, recorder.count("failed: game_"));
+    }
+
+    @Test
+    public void disconnectStopsClientThatIsLoggingIn() throws Exception {
+        Recorder recorder = new Recorder();
+        FRPClient client = newClient(config(""), recorder);
+        client.connect();
+        try (Socket control = server.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(in.readLine().contains("\"Login\""));
+
+            client.disconnect("Superseded");
+            assertTrue(recorder.disconnected.await(5, TimeUnit.SECONDS));
+            // The control connection is closed: the server reads to end of stream (a read timeout would throw)
+            control.setSoTimeout(5000);
+            while (in.readLine() != null) {
+                // Skip whatever was sent before the disconnect, e.g. a Ping
+            }
+        }
+        client.disconnect("Again");
+        client.connect(); // A closed client stays closed
+        assertEquals(1, recorder.count("disconnected"));
+        assertEquals(0, recorder.count("connected"));
+    }
+
+    @Test
+    public void standbyTakesVisitorListenerOnlyWhenReleased() throws Exception {
+        int port = freePort();
+        // Clients of one profile share the parsed snapshot, so their visitors share a config
+        ClientConfig config = config("\n[reach]\nrole = visitor\ntype = stcp\nserver_name = secret\nsk = key\n"
+                + "bind_addr = 127.0.0.1\nbind_port = " + port + "\n");
+        answerLogins();
+
+        Recorder activeRecorder = new Recorder();
+        FRPClient active = newClient(config, activeRecorder);
+        active.connect();
+        assertTrue(activeRecorder.listening.await(5, TimeUnit.SECONDS));
+        assertTrue(isBound(port));
+
+        // A standby that never takes over must leave the active session's listener alone
+        Recorder standbyRecorder = new Recorder();
+        FRPClient standby = newClient(config, standbyRecorder);
+        standby.holdRegistration();
+        standby.connect();
+        assertTrue(standbyRecorder.connected.await(5, TimeUnit.SECONDS));
+        assertFalse(standbyRecorder.listening.await(300, TimeUnit.MILLISECONDS));
+        standby.disconnect("Superseded");
+        assertTrue(isBound(port));
+
+        // One that takes over keeps the port open when the old session goes
+        Recorder nextRecorder = new Recorder();
+        FRPClient next = newClient(config, nextRecorder);
+        next.holdRegistration();
+        next.connect();
+        assertTrue(nextRecorder.connected.await(5, TimeUnit.SECONDS));
+        next.releaseRegistration();
+        assertEquals(1, nextRecorder.count("log: Visitor [reach] listening"));
+        active.disconnect("Handed over");
+        assertTrue(isBound(port));
+
+        next.disconnect("Stopped");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (isBound(port) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(isBound(port));
+    }
+
+    private ClientConfig config(String sections) {
+        return ClientConfig.parse("[common]\nserver_addr = 127.0.0.1\nserver_port = " + server.getLocalPort() + "\n"
+                + sections);
+    }
+
+    private FRPClient newClient(ClientConfig config, Recorder recorder) {
+        return new FRPClient(config, null, runtime, recorder);
+    }
+
+    /**
+     * Accepts every login on a background thread and keeps the connections open.
+     */
+    private void answerLogins() {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket control = server.accept();
+                    accepted.add(control);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+                    if (in.readLine() != null) {
+                        OutputStream out = control.getOutputStream();
+                        out.write(LOGIN_RESP.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Server closed by tearDown
+            }
+        }, "FakeLoginServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * True if something listens on the port. Probes by binding rather than connecting, so the
+     * visitor does not get a connection to forward.
+     */
+    private static boolean isBound(int port) throws IOException {
+        try (ServerSocket probe = new ServerSocket()) {
+            probe.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+            return false;
+        } catch (BindException e) {
+            return true;
+        }
+    }
+
+    private static final class Recorder implements FRPClient.FRPClientListener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final CountDownLatch listening = new CountDownLatch(1);
+
+        @Override
+        public void onConnected() {
+            events.add("connected");
+            connected.countDown();
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            events.add("disconnected: " + reason);
+            disconnected.countDown();
+        }
+
+        @Override
+        public void onError(String error) {
+            events.add("error: " + error);
+        }
+
+        @Override
+        public void onLog(String message) {
+            if (message.startsWith("Visitor")) {
+                events.add("log: " + message);
+                if (message.contains(" listening on ")) {
+                    listening.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void onProxyStatus(String proxyName, boolean registered, String detail) {
+            events.add((registered ? "registered: " : "failed: ") + proxyName);
+        }
+
+        int count(String prefix) {
+            int count = 0;
+            for (String event : events) {
+                if (event.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.promedia.frcclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * KCP sessions over loopback, against a peer running the same Kcp implementation.
+ */
+public class KcpTransportTest {
+
+    private KcpDriver driver;
+    private final MemoryBudget budget = new MemoryBudget(64L * 1024 * 1024);
+    private DatagramSocket peerSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        driver = new KcpDriver();
+        peerSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+    }
+
+    @After
+    public void tearDown() {
+        peerSocket.close();
+        driver.shutdown();
+    }
+
+    @Test
+    public void deliversEverythingUnderLoss() throws Exception {
+        startEchoPeer();
+        KcpTransport.Options options = new KcpTransport.Options();
+        options.lossRate = 0.2; // Each way, on top of whatever the peer loses
+        KcpTransport transport = new KcpTransport(null, options, driver, new DnsCache(60000), budget);
+        TunnelConn conn = transport.dial("127.0.0.1", peerSocket.getLocalPort(), 1000);
+        conn.setReadTimeout(20000);
+
+        byte[] data = new byte[256 * 1024];
+        new Random(7).nextBytes(data);
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = conn.getOutputStream();
+                for (int off = 0; off < data.length; off += 10000) {
+                    out.write(data, off, Math.min(10000, data.length - off));
+                }
+            } catch (IOException e) {
+                // The reader fails on the missing bytes
+            }
+        });
+        writer.start();
+
+        byte[] echoed = new byte[data.length];
+        InputStream in = conn.getInputStream();
+        int received = 0;
+        while (received < echoed.length) {
+            int read = in.read(echoed, received, echoed.length - received);
+            if (read < 0) {
+                break;
+            }
+            received += read;
+        }
+        writer.join();
+        conn.close();
+        assertEquals(data.length, received);
+        assertArrayEquals(data, echoed);
+    }
+
+    @Test
+    public void queuesAreChargedToTheBudgetAndReturnedOnClose() throws Exception {
+        startEchoPeer();
+        // Room for a few steps of 32 segments, far less than the default windows would queue
+        MemoryBudget tight = new MemoryBudget(100 * 1024);
+        KcpTransport transport = new KcpTransport(null, new KcpTransport.Options(), driver, new DnsCache(60000), tight);
+        TunnelConn conn = transport.dial("127.0.0.1", peerSocket.getLocalPort(), 1000);
+        conn.setReadTimeout(20000);
+        assertTrue(tight.usedBytes() > 0); // The initial receive window
+
+        byte[] data = new byte[256 * 1024];
+        new Random(11).nextBytes(data);
+        Thread writer = new Thread(() -> {
+            try {
+                conn.getOutputStream().write(data);
+            } catch (IOException e) {
+                // The reader fails on the missing bytes
+            }
+        });
+        writer.start();
+        byte[] echoed = new byte[data.length];
+        InputStream in = conn.getInputStream();
+        int received = 0;
+        int read;
+        while (received < echoed.length && (read = in.read(echoed, received, echoed.length - received)) >= 0) {
+            received += read;
+        }
+        writer.join();
+        assertArrayEquals(data, echoed);
+        assertTrue(tight.usedBytes() <= tight.limitBytes());
+
+        conn.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tight.usedBytes() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, tight.usedBytes());
+    }
+
+    @Test
+    public void dialIsRefusedWithoutBudget() throws Exception {
+        MemoryBudget exhausted = new MemoryBudget(1024);
+        KcpTransport transport = new KcpTransport(null, new KcpTransport.Options(), driver, new DnsCache(60000),
+                exhausted);
+        try {
+            transport.dial("127.0.0.1", peerSocket.getLocalPort(), 1000);
+            fail("Dialed without budget for a receive window");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("budget"));
+        }
+        assertEquals(0, exhausted.usedBytes());
+    }
+
+    @Test
+    public void idleSessionOutlivesTheTimeout() throws Exception {
+        startEchoPeer();
+        KcpTransport.Options options = new KcpTransport.Options();
+        options.idleTimeoutMs = 300;
+        options.keepaliveMs = 100;
+        KcpTransport transport = new KcpTransport(null, options, driver, new DnsCache(60000), budget);
+        TunnelConn conn = transport.dial("127.0.0.1", peerSocket.getLocalPort(), 1000);
+        conn.setReadTimeout(5000);
+
+        assertEquals(1, echo(conn, 1));
+        // Neither side has anything to send for several timeouts, like an idle SSH session
+        Thread.sleep(1500);
+        assertFalse(conn.isClosed());
+        assertEquals(2, echo(conn, 2));
+        conn.close();
+    }
+
+    @Test(timeout = 10000) // Blocks forever without the idle deadline
+    public void silentPeerFailsBlockedRead() throws Exception {
+        KcpTransport.Options options = new KcpTransport.Options();
+        options.idleTimeoutMs = 300;
+        KcpTransport transport = new KcpTransport(null, options, driver, new DnsCache(60000), budget);
+        TunnelConn conn = transport.dial("127.0.0.1", peerSocket.getLocalPort(), 1000);
+
+        long start = System.nanoTime();
+        try {
+            conn.getInputStream().read(new byte[16]); // No read timeout
+            fail("Read returned on a silent session");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("nothing received"));
+        }
+        assertTrue((System.nanoTime() - start) / 1000000L < 5000);
+        assertTrue(conn.isClosed());
+    }
+
+    @Test(timeout = 10000) // Blocks forever without the idle deadline
+    public void workConnectionEndsWhenPeerGoesSilent() throws Exception {
+        KcpTransport.Options options = new KcpTransport.Options();
+        options.idleTimeoutMs = 300;
+        ClientRuntime runtime = new ClientRuntime(MemoryBudget.forHeap(64L * 1024 * 1024), EventLog.DISABLED);
+        KcpTransport transport = new KcpTransport(null, options, driver, new DnsCache(60000), runtime.relayBudget());
+        try (ServerSocket backend = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            WorkTraceRing traces = new WorkTraceRing(16);
+            runtime.ioExecutor().execute(new WorkConnection(transport, "127.0.0.1", peerSocket.getLocalPort(), "web",
+                    "127.0.0.1", backend.getLocalPort(), TransportProfile.INTERACTIVE, null, new RttEstimator(),
+                    runtime, new SilentListener(), traces, traces.begin(0), 0, 0));
+
+            // The relay must give up on the server side and close the backend connection
+            backend.setSoTimeout(5000);
+            try (Socket local = backend.accept()) {
+                local.setSoTimeout(5000);
+                try {
+                    assertEquals(-1, local.getInputStream().read());
+                } catch (SocketTimeoutException e) {
+                    fail("Backend connection still open after the peer went silent");
+                }
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (runtime.relayBudget().usedBytes() != 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, runtime.relayBudget().usedBytes());
+        } finally {
+            runtime.shutdown();
+        }
+    }
+
+    private static int echo(TunnelConn conn, int value) throws IOException {
+        conn.getOutputStream().write(value);
+        return conn.getInputStream().read();
+    }
+
+    /**
+     * Echoes every byte of the first session it hears from.
+     */
+    private void startEchoPeer() {
+        Thread thread = new Thread(() -> {
+            byte[] datagram = new byte[64 * 1024];
+            byte[] received = new byte[64 * 1024];
+            Kcp kcp = null;
+            SocketAddress[] client = new SocketAddress[1];
+            try {
+                peerSocket.setSoTimeout(5);
+                while (!peerSocket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(datagram, datagram.length);
+                        peerSocket.receive(packet);
+                        if (kcp == null) {
+                            client[0] = packet.getSocketAddress();
+                            int conv = (datagram[0] & 0xff) | (datagram[1] & 0xff) << 8
+                                    | (datagram[2] & 0xff) << 16 | (datagram[3] & 0xff) << 24;
+                            kcp = new Kcp(conv, (data, length) -> {
+                                try {
+                                    peerSocket.send(new DatagramPacket(data, 0, length, client[0]));
+                                } catch (IOException e) {
+                                    // Lost, like any other datagram
+                                }
+                            });
+                            kcp.setNoDelay(1, 20, 2, true);
+                            kcp.setWindowSize(128, 512);
+                            kcp.setStreamMode(true);
+                            kcp.update(KcpDriver.now());
+                        }
+                        kcp.input(datagram, 0, packet.getLength());
+                    } catch (SocketTimeoutException e) {
+                        // Time to run the clock
+                    }
+                    if (kcp != null) {
+                        kcp.update(KcpDriver.now());
+                        int length;
+                        while ((length = kcp.recv(received, 0, received.length)) > 0) {
+                            kcp.send(received, 0, length);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Socket closed by tearDown
+            }
+        }, "KcpEchoPeer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static final class SilentListener implements FRPClient.FRPClientListener {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+        }
+
+        @Override
+        public void onError(String error) {
+        }
+
+        @Override
+        public void onLog(String message) {
+        }
+
+        @Override
+        public void onProxyStatus(String proxyName, boolean registered, String detail) {
+        }
+    }
+}
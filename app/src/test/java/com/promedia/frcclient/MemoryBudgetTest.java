@@ -0,0 +1,45 @@
+package com.promedia.frcclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void admissionStopsAtHighWaterAndResumesBelowLowWater() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.tryAdmit(850));
+        assertFalse(budget.tryAdmit(100)); // Would pass 90%
+
+        // Hysteresis: even a small connection is refused until usage drops to 70%
+        assertFalse(budget.tryAdmit(10));
+        budget.release(100);
+        assertEquals(750, budget.usedBytes());
+        assertFalse(budget.tryAdmit(10));
+        budget.release(50);
+        assertTrue(budget.tryAdmit(10));
+        assertEquals(710, budget.usedBytes());
+    }
+
+    @Test
+    public void growthIsOnlyLimitedByTheHardLimit() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.tryAdmit(800));
+        assertFalse(budget.tryAdmit(200)); // Admission is closed now
+        assertTrue(budget.tryGrow(200));   // Existing connections may still use the rest
+        assertFalse(budget.tryGrow(1));
+        assertEquals(1000, budget.usedBytes());
+        budget.release(1000);
+        assertEquals(0, budget.usedBytes());
+        assertTrue(budget.tryAdmit(900));
+    }
+
+    @Test
+    public void heapBudgetIsAQuarterCappedAt64MiB() {
+        assertEquals(32L * 1024 * 1024, MemoryBudget.forHeap(128L * 1024 * 1024).limitBytes());
+        assertEquals(64L * 1024 * 1024, MemoryBudget.forHeap(512L * 1024 * 1024).limitBytes());
+    }
+}
@@ -0,0 +1,94 @@
+package com.promedia.frcclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkRankingTest {
+
+    private static final int ETHERNET = NetworkRanking.score(NetworkRanking.TRANSPORT_ETHERNET, true);
+    private static final int WIFI = NetworkRanking.score(NetworkRanking.TRANSPORT_WIFI, true);
+    private static final int CELLULAR = NetworkRanking.score(NetworkRanking.TRANSPORT_CELLULAR, true);
+    private static final int WIFI_UNVALIDATED = NetworkRanking.score(NetworkRanking.TRANSPORT_WIFI, false);
+    private static final int ETHERNET_UNVALIDATED = NetworkRanking.score(NetworkRanking.TRANSPORT_ETHERNET, false);
+
+    private final NetworkRanking<String> ranking = new NetworkRanking<>();
+
+    @Test
+    public void validationRanksAboveTransport() {
+        assertTrue(ETHERNET > WIFI);
+        assertTrue(WIFI > CELLULAR);
+        assertTrue(CELLULAR > ETHERNET_UNVALIDATED);
+        assertEquals(0, NetworkRanking.score(NetworkRanking.TRANSPORT_OTHER, true));
+    }
+
+    @Test
+    public void betterNetworksTakeOverInOrder() {
+        assertEquals("cell", ranking.update("cell", CELLULAR));
+        assertEquals("wifi", ranking.update("wifi", WIFI));
+        assertEquals("eth", ranking.update("eth", ETHERNET));
+        assertEquals("eth", ranking.current());
+    }
+
+    @Test
+    public void equalOrWorseNetworkDoesNotTakeOver() {
+        ranking.update("wifi", WIFI);
+        assertNull(ranking.update("wifi2", WIFI));
+        assertNull(ranking.update("cell", CELLULAR));
+        assertNull(ranking.update("eth", ETHERNET_UNVALIDATED));
+        assertEquals("wifi", ranking.current());
+    }
+
+    @Test
+    public void currentNetworkLosingValidationHandsOver() {
+        ranking.update("wifi", WIFI);
+        ranking.update("cell", CELLULAR);
+        assertEquals("wifi", ranking.current());
+
+        // Captive portal: Wi-Fi stays connected but fails the connectivity check
+        assertEquals("cell", ranking.update("wifi", WIFI_UNVALIDATED));
+        assertEquals("cell", ranking.current());
+
+        // Once validated again it is the better network
+        assertEquals("wifi", ranking.update("wifi", WIFI));
+    }
+
+    @Test
+    public void currentNetworkLosingValidationStaysWithoutABetterOne() {
+        ranking.update("wifi", WIFI);
+        assertNull(ranking.update("wifi", WIFI_UNVALIDATED));
+        assertEquals("wifi", ranking.current());
+
+        // A network that shows up later is compared with the degraded score
+        assertEquals("cell", ranking.update("cell", CELLULAR));
+    }
+
+    @Test
+    public void unusableNetworkIsNeverSelected() {
+        assertNull(ranking.update("vpn", 0));
+        assertNull(ranking.current());
+        assertEquals("wifi", ranking.update("wifi", WIFI));
+        assertNull(ranking.update("cell", CELLULAR));
+        // The current network becoming unusable is a score drop like any other
+        assertEquals("cell", ranking.update("wifi", 0));
+    }
+
+    @Test
+    public void removingTheCurrentNetworkSelectsTheNextBest() {
+        ranking.update("cell", CELLULAR);
+        ranking.update("wifi2", WIFI_UNVALIDATED);
+        ranking.update("wifi", WIFI);
+        assertFalse(ranking.remove("wifi2"));
+        assertEquals("wifi", ranking.current());
+
+        assertTrue(ranking.remove("wifi"));
+        assertNull(ranking.current());
+        assertEquals("cell", ranking.select());
+        assertTrue(ranking.remove("cell"));
+        assertNull(ranking.select());
+        assertNull(ranking.current());
+    }
+}
@@ -0,0 +1,358 @@
+package com.promedia.frcclient;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a ProfileSession through network changes with a fake NetworkSelector, against a fake
+ * frps that, like the real one, refuses a proxy while another control connection holds it.
+ */
+public class ProfileSessionHandoverTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private FakeServer server;
+    private ClientRuntime runtime;
+    private ExecutorService mainThread;
+    private FakeSelector selector;
+    private ProfileSession session;
+    private final List<StateEvent> states = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeServer();
+        runtime = new ClientRuntime(MemoryBudget.forHeap(64L * 1024 * 1024), EventLog.DISABLED);
+        mainThread = Executors.newSingleThreadExecutor();
+        selector = new FakeSelector();
+        String config = "[common]\n"
+                + "server_addr = 127.0.0.1\n"
+                + "server_port = " + server.port() + "\n"
+                + "\n"
+                + "[web]\n"
+                + "type = tcp\n"
+                + "local_ip = 127.0.0.1\n"
+                + "local_port = 8080\n"
+                + "remote_port = 6000\n";
+        session = new ProfileSession("test", config, runtime, selector, mainThread, new ProfileSession.Host() {
+            private long seq = 1;
+
+            @Override
+            public void log(String profile, String message) {
+                // Not needed by the assertions
+            }
+
+            @Override
+            public void onStateChanged(ProfileSession changed) {
+                states.add(changed.currentEvent());
+            }
+
+            @Override
+            public void onNotificationChanged(ProfileSession changed) {
+                // No notification in tests
+            }
+
+            @Override
+            public boolean isNetworkAvailable() {
+                return selector.current() != null;
+            }
+
+            @Override
+            public long nextSeq() {
+                return seq++;
+            }
+        });
+        // Wired like FRPService: selector callbacks are handled on the main thread
+        selector.start(new NetworkSelector.Callback() {
+            @Override
+            public void onNetworkSelected(NetworkSelector.Handle network) {
+                mainThread.execute(() -> session.onNetworkSelected(network));
+            }
+
+            @Override
+            public void onNetworkLost(NetworkSelector.Handle network) {
+                mainThread.execute(() -> session.onNetworkLost(network));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        onMain(() -> {
+            session.stop("Test finished.");
+            return null;
+        });
+        mainThread.shutdown();
+        runtime.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void handoverMovesProxiesToTheNewNetwork() throws Exception {
+        FakeHandle wifi = new FakeHandle("wifi");
+        FakeHandle cellular = new FakeHandle("cellular");
+        selector.select(wifi);
+        onMain(() -> {
+            session.start();
+            return null;
+        });
+        waitFor(() -> server.owner("web") == 1);
+        waitFor(() -> onMain(session::state) == ProfileState.CONNECTED);
+
+        selector.select(cellular);
+        // The standby logs in on the new network, takes over and registers the proxy once the
+        // server has dropped the old session
+        waitFor(() -> server.owner("web") == 2);
+        waitFor(() -> !server.isOpen(1));
+        assertTrue(server.isOpen(2));
+        assertEquals(2, server.connectionCount());
+        assertEquals(ProfileState.CONNECTED, onMain(session::state));
+        for (StateEvent event : states) {
+            assertFalse("Handover must not drop the profile: " + event.detail, event.state == ProfileState.RECONNECTING);
+        }
+    }
+
+    @Test
+    public void supersededStandbyIsClosedBeforeItLogsIn() throws Exception {
+        FakeHandle wifi = new FakeHandle("wifi");
+        selector.select(wifi);
+        onMain(() -> {
+            session.start();
+            return null;
+        });
+        waitFor(() -> server.owner("web") == 1);
+        waitFor(() -> onMain(session::state) == ProfileState.CONNECTED);
+
+        // The standby on the first better network never gets its LoginResp...
+        server.answerLogins(false);
+        selector.select(new FakeHandle("cellular"));
+        waitFor(() -> server.connectionCount() == 2);
+        // ...and is replaced by one on a still better network before it does
+        server.answerLogins(true);
+        selector.select(new FakeHandle("ethernet"));
+        waitFor(() -> !server.isOpen(2));
+        waitFor(() -> server.owner("web") == 3);
+        waitFor(() -> !server.isOpen(1));
+        assertEquals(ProfileState.CONNECTED, onMain(session::state));
+    }
+
+    private <T> T onMain(Callable<T> task) throws Exception {
+        return mainThread.submit(task).get();
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met within " + TIMEOUT_MS + " ms");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static final class FakeHandle implements NetworkSelector.Handle {
+        private final String id;
+
+        FakeHandle(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public void bindSocket(Socket socket) {
+            // Every fake network is the loopback interface
+        }
+
+        @Override
+        public void bindDatagramSocket(DatagramSocket socket) {
+            // Every fake network is the loopback interface
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    }
+
+    private static final class FakeSelector implements NetworkSelector {
+        private volatile Callback callback;
+        private volatile Handle current;
+
+        @Override
+        public void start(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void stop() {
+            callback = null;
+        }
+
+        @Override
+        public Handle current() {
+            return current;
+        }
+
+        void select(Handle network) {
+            current = network;
+            Callback target = callback;
+            if (target != null) {
+                target.onNetworkSelected(network);
+            }
+        }
+    }
+
+    /**
+     * Control connections only: answers Login, NewProxy and Ping. Connections are numbered from 1
+     * in accept order.
+     */
+    private static final class FakeServer implements Closeable {
+        private final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        private final Map<String, Integer> owners = new HashMap<>(); // Guarded by this
+        private final Set<Integer> open = new HashSet<>();           // Guarded by this
+        private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+        private int connections = 0;                                 // Guarded by this
+        private volatile boolean answerLogins = true;
+
+        FakeServer() throws IOException {
+            Thread acceptor = new Thread(this::acceptLoop, "FakeServer");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        void answerLogins(boolean answer) {
+            answerLogins = answer;
+        }
+
+        synchronized int owner(String proxyName) {
+            Integer owner = owners.get(proxyName);
+            return owner != null ? owner : 0;
+        }
+
+        synchronized boolean isOpen(int connection) {
+            return open.contains(connection);
+        }
+
+        synchronized int connectionCount() {
+            return connections;
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    Socket client = socket.accept();
+                    accepted.add(client);
+                    int id;
+                    synchronized (this) {
+                        id = ++connections;
+                        open.add(id);
+                    }
+                    Thread thread = new Thread(() -> serve(id, client), "FakeServer-" + id);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void serve(int id, Socket client) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    JSONObject message = new JSONObject(line);
+                    JSONObject content = message.optJSONObject("content");
+                    switch (message.optString("type")) {
+                        case "Login":
+                            if (answerLogins) {
+                                send(out, "LoginResp", new JSONObject().put("run_id", "run" + id));
+                            }
+                            break;
+                        case "NewProxy":
+                            String name = content.optString("proxy_name");
+                            String error = "";
+                            synchronized (this) {
+                                Integer owner = owners.get(name);
+                                if (owner != null && owner != id && open.contains(owner)) {
+                                    error = "proxy [" + name + "] is already in use";
+                                } else {
+                                    owners.put(name, id);
+                                }
+                            }
+                            send(out, "NewProxyResp", new JSONObject().put("proxy_name", name)
+                                    .put("remote_addr", ":" + content.optInt("remote_port")).put("error", error));
+                            break;
+                        case "Ping":
+                            send(out, "Pong", new JSONObject());
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (Exception e) {
+                // Connection closed by the client
+            } finally {
+                synchronized (this) {
+                    open.remove(id);
+                    owners.values().removeIf(owner -> owner == id);
+                }
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                    // Nothing useful to do here
+                }
+            }
+        }
+
+        private static void send(BufferedWriter out, String type, JSONObject content) throws Exception {
+            out.write(new JSONObject().put("type", type).put("content", content).toString());
+            out.newLine();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            for (Socket client : accepted) {
+                client.close();
+            }
+        }
+    }
+}
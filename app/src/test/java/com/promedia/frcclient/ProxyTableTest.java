@@ -0,0 +1,79 @@
+package com.promedia.frcclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProxyTableTest {
+
+    @Test
+    public void findsEveryRowAcrossGrowth() {
+        ProxyTable table = new ProxyTable();
+        // Far past the initial capacity, so the index is rebuilt several times
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, table.add("game_" + i, ProxyTable.TYPE_TCP, "127.0.0.1", 7000 + i, 9000 + i,
+                    TransportProfile.INTERACTIVE, null));
+        }
+        assertEquals(5000, table.size());
+        for (int i = 0; i < 5000; i++) {
+            int row = table.indexOf(new String("game_" + i)); // Not the stored instance
+            assertEquals(i, row);
+            assertEquals(7000 + i, table.localPort(row));
+            assertEquals(9000 + i, table.remotePort(row));
+        }
+        assertEquals(-1, table.indexOf("game_5000"));
+        assertEquals(-1, table.indexOf("game"));
+        assertEquals(-1, table.indexOf(null));
+    }
+
+    @Test
+    public void collidingNamesAreProbedPastEachOther() {
+        ProxyTable table = new ProxyTable();
+        // "Aa" and "BB" have the same hashCode, so they start probing at the same slot
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        table.add("Aa", ProxyTable.TYPE_TCP, "127.0.0.1", 1, 2, TransportProfile.INTERACTIVE, null);
+        table.add("BB", ProxyTable.TYPE_TCP, "127.0.0.1", 3, 4, TransportProfile.BULK, null);
+        assertEquals(0, table.indexOf("Aa"));
+        assertEquals(1, table.indexOf("BB"));
+        assertEquals(-1, table.indexOf("AaBB"));
+        assertEquals(TransportProfile.BULK, table.profile(1));
+    }
+
+    @Test
+    public void duplicateNameIsRefused() {
+        ProxyTable table = new ProxyTable();
+        assertEquals(0, table.add("web", ProxyTable.TYPE_TCP, "127.0.0.1", 80, 8080,
+                TransportProfile.INTERACTIVE, null));
+        assertEquals(-1, table.add("web", ProxyTable.TYPE_TCP, "10.0.0.1", 81, 8081,
+                TransportProfile.INTERACTIVE, null));
+        assertEquals(1, table.size());
+        assertEquals(80, table.localPort(0));
+    }
+
+    @Test
+    public void expandedRowsShareOneLocalIpInstance() {
+        ProxyTable table = new ProxyTable();
+        table.add("a", ProxyTable.TYPE_TCP, new String("192.168.1.10"), 1, 1, TransportProfile.INTERACTIVE, null);
+        table.add("b", ProxyTable.TYPE_TCP, new String("192.168.1.10"), 2, 2, TransportProfile.INTERACTIVE, null);
+        assertTrue(table.localIp(0) == table.localIp(1));
+    }
+
+    @Test
+    public void frozenTableRefusesAddsAndKeepsServingLookups() {
+        ProxyTable table = new ProxyTable();
+        table.add("web", ProxyTable.TYPE_TCP, "127.0.0.1", 80, 8080, TransportProfile.INTERACTIVE, null);
+        table.freeze();
+        try {
+            table.add("ssh", ProxyTable.TYPE_TCP, "127.0.0.1", 22, 2222, TransportProfile.INTERACTIVE, null);
+            fail("Added to a frozen table");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(1, table.size());
+        assertEquals(0, table.indexOf("web"));
+        assertEquals(-1, table.indexOf("ssh"));
+        assertEquals("tcp", table.typeName(0));
+    }
+}
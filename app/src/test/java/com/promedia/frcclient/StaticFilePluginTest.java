@@ -0,0 +1,117 @@
+package com.promedia.frcclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StaticFilePluginTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("static").toFile();
+        try (FileOutputStream out = new FileOutputStream(new File(root, "a b?.txt"))) {
+            out.write("hello".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : root.listFiles()) {
+            file.delete();
+        }
+        root.delete();
+    }
+
+    @Test
+    public void listingLinksIgnoreTheQuery() throws IOException {
+        String response = get(new StaticFilePlugin(root.getPath(), "/static/", null, null), "/static/?x=1");
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response, response.contains("<a href=\"/static/a%20b%3F.txt\">a b?.txt</a>"));
+        assertFalse(response, response.contains("x=1"));
+    }
+
+    @Test
+    public void listedLinkServesTheFile() throws IOException {
+        String response = get(new StaticFilePlugin(root.getPath(), "/static/", null, null), "/static/a%20b%3F.txt");
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response, response.endsWith("hello"));
+    }
+
+    @Test
+    public void barePrefixRedirectsToTheDirectory() throws IOException {
+        // No trailing slash in the configured prefix either
+        String response = get(new StaticFilePlugin(root.getPath(), "/static", null, null), "/static?x=1");
+        assertTrue(response, response.startsWith("HTTP/1.1 301 Moved Permanently"));
+        assertTrue(response, response.contains("Location: /static/?x=1\r\n"));
+    }
+
+    @Test
+    public void otherPathsOutsideThePrefixAreNotFound() throws IOException {
+        String response = get(new StaticFilePlugin(root.getPath(), "/static", null, null), "/staticfoo");
+        assertTrue(response, response.startsWith("HTTP/1.1 404 Not Found"));
+    }
+
+    private static String get(StaticFilePlugin plugin, String target) throws IOException {
+        byte[] request = ("GET " + target + " HTTP/1.1\r\nHost: test\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        plugin.handle(new RecordingConn(response), new ByteArrayInputStream(request));
+        return new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordingConn implements TunnelConn {
+        private final ByteArrayOutputStream out;
+
+        RecordingConn(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            throw new UnsupportedOperationException("The plugin reads from the stream it is given");
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public WritableByteChannel writableChannel() {
+            return Channels.newChannel(out);
+        }
+
+        @Override
+        public void setReadTimeout(int timeoutMs) {
+        }
+
+        @Override
+        public void applyProfile(TransportProfile profile) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
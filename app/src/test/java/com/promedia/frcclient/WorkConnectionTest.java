@@ -0,0 +1,111 @@
+package com.promedia.frcclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkConnectionTest {
+
+    private ServerSocket server;
+    private ServerSocket backend;
+    private ClientRuntime runtime;
+    private WorkTraceRing traces;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        backend = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(5000);
+        backend.setSoTimeout(5000);
+        runtime = new ClientRuntime(new MemoryBudget(1024 * 1024), EventLog.DISABLED);
+        traces = new WorkTraceRing(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runtime.shutdown();
+        server.close();
+        backend.close();
+    }
+
+    @Test
+    public void relayBuffersAreChargedUntilClose() throws Exception {
+        long traceId = traces.begin(0);
+        runtime.ioExecutor().execute(newWork(traceId));
+        try (Socket work = server.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(work.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(in.readLine().contains("\"NewWorkConn\""));
+            try (Socket local = backend.accept()) {
+                work.getOutputStream().write('x');
+                assertEquals('x', local.getInputStream().read());
+                assertEquals(2 * TransportProfile.INTERACTIVE.initialChunkSize, runtime.relayBudget().usedBytes());
+            }
+            // The backend closed; the relay ends and closes the work connection too
+            work.setSoTimeout(5000);
+            assertEquals(-1, work.getInputStream().read());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runtime.relayBudget().usedBytes() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, runtime.relayBudget().usedBytes());
+        assertTrue(traces.snapshot(proxies()).get(0).offsetMicros(WorkTraceRing.EVENT_CLOSED) >= 0);
+    }
+
+    @Test
+    public void connectionIsRefusedWhileAdmissionIsClosed() throws Exception {
+        MemoryBudget budget = runtime.relayBudget();
+        assertTrue(budget.tryGrow((int) budget.limitBytes())); // Full: past the high-water mark
+        long traceId = traces.begin(0);
+        newWork(traceId).run();
+
+        assertEquals(budget.limitBytes(), budget.usedBytes()); // Nothing reserved, nothing leaked
+        WorkTraceRing.Record record = traces.snapshot(proxies()).get(0);
+        assertTrue(record.offsetMicros(WorkTraceRing.EVENT_CLOSED) >= 0);
+        assertEquals(-1, record.offsetMicros(WorkTraceRing.EVENT_WORK_DIALED));
+    }
+
+    private WorkConnection newWork(long traceId) {
+        return new WorkConnection(new TcpTransport(null, runtime.dnsCache()), "127.0.0.1", server.getLocalPort(), "web",
+                "127.0.0.1", backend.getLocalPort(), TransportProfile.INTERACTIVE, null, new RttEstimator(), runtime,
+                new NullListener(), traces, traceId, 0, 0);
+    }
+
+    private static ProxyTable proxies() {
+        ProxyTable table = new ProxyTable();
+        table.add("web", ProxyTable.TYPE_TCP, "127.0.0.1", 80, 8080, TransportProfile.INTERACTIVE, null);
+        return table;
+    }
+
+    private static final class NullListener implements FRPClient.FRPClientListener {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+        }
+
+        @Override
+        public void onError(String error) {
+        }
+
+        @Override
+        public void onLog(String message) {
+        }
+
+        @Override
+        public void onProxyStatus(String proxyName, boolean registered, String detail) {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.promedia.frcclient;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkTraceRingTest {
+
+    private static ProxyTable proxies() {
+        ProxyTable table = new ProxyTable();
+        table.add("web", ProxyTable.TYPE_TCP, "127.0.0.1", 80, 8080, TransportProfile.INTERACTIVE, null);
+        table.add("ssh", ProxyTable.TYPE_TCP, "127.0.0.1", 22, 2222, TransportProfile.INTERACTIVE, null);
+        table.freeze();
+        return table;
+    }
+
+    @Test
+    public void marksAreRecordedOncePerEvent() throws Exception {
+        WorkTraceRing ring = new WorkTraceRing(4);
+        long id = ring.begin(0);
+        Thread.sleep(2);
+        ring.mark(id, WorkTraceRing.EVENT_WORK_DIALED);
+        long dialed = ring.snapshot(proxies()).get(0).offsetMicros(WorkTraceRing.EVENT_WORK_DIALED);
+        Thread.sleep(2);
+        ring.mark(id, WorkTraceRing.EVENT_WORK_DIALED); // Ignored: the first stamp stands
+
+        WorkTraceRing.Record record = ring.snapshot(proxies()).get(0);
+        assertEquals("web", record.proxyName);
+        assertEquals(0, record.offsetMicros(WorkTraceRing.EVENT_NEW_WORK));
+        assertEquals(dialed, record.offsetMicros(WorkTraceRing.EVENT_WORK_DIALED));
+        assertTrue(dialed >= 1000);
+        assertEquals(-1, record.offsetMicros(WorkTraceRing.EVENT_CLOSED));
+        assertTrue(record.toString(), record.toString().startsWith("trace #0 [web] dialed="));
+        assertTrue(record.toString(), record.toString().endsWith(" closed=-"));
+    }
+
+    @Test
+    public void wrappingReusesTheOldestSlot() {
+        WorkTraceRing ring = new WorkTraceRing(4);
+        long[] ids = new long[6];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ring.begin(i % 2);
+        }
+        // 4 and 5 took the slots of 0 and 1
+        List<WorkTraceRing.Record> records = ring.snapshot(proxies());
+        assertEquals(4, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(ids[i + 2], records.get(i).id);
+            assertEquals(i % 2 == 0 ? "web" : "ssh", records.get(i).proxyName);
+        }
+
+        // The reused slot starts clean, and marks for the overwritten trace are dropped
+        ring.mark(ids[4], WorkTraceRing.EVENT_CLOSED);
+        ring.mark(ids[0], WorkTraceRing.EVENT_WORK_DIALED);
+        WorkTraceRing.Record reused = ring.snapshot(proxies()).get(2);
+        assertEquals(ids[4], reused.id);
+        assertTrue(reused.offsetMicros(WorkTraceRing.EVENT_CLOSED) >= 0);
+        assertEquals(-1, reused.offsetMicros(WorkTraceRing.EVENT_WORK_DIALED));
+    }
+
+    @Test
+    public void unknownProxyRowIsExportedAsPlaceholder() {
+        WorkTraceRing ring = new WorkTraceRing(2);
+        ring.begin(7);
+        assertEquals("?", ring.snapshot(proxies()).get(0).proxyName);
+    }
+}